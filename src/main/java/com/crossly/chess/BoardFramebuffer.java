@@ -1,9 +1,12 @@
 package com.crossly.chess;
 
+import com.crossly.engine.graphics.AsyncPixelReader;
 import com.crossly.engine.graphics.Framebuffer;
 import com.crossly.engine.graphics.Renderbuffer;
 import org.joml.Vector2f;
 
+import java.util.function.Consumer;
+
 import static org.lwjgl.opengl.GL33.*;
 
 public class BoardFramebuffer extends Framebuffer {
@@ -17,55 +20,89 @@ public class BoardFramebuffer extends Framebuffer {
 		}
 	}
 
-	private final Renderbuffer pieceIdBuffer;
-	private final Renderbuffer boardPosIdBuffer;
+	// Bytes of one id pixel, the piece id in the red and the board position id in the green channel
+	public static final int ID_PIXEL_BYTES = 8;
+	private static final int[] CLEAR_IDS = { -1, -1, 0, 0 };
+
+	private final Renderbuffer idBuffer;
 	private final Renderbuffer depthStencilBuffer;
 
 	public BoardFramebuffer(int width, int height) {
+		this(width, height, true);
+	}
+
+	// Without ids only the color attachment is written, for when picking is done on the CPU
+	public BoardFramebuffer(int width, int height, boolean withIds) {
 		super(width, height);
-		pieceIdBuffer = new Renderbuffer(width, height, GL_R32I);
-		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_RENDERBUFFER, pieceIdBuffer.getRenderbufferId());
-		boardPosIdBuffer = new Renderbuffer(width, height, GL_R32I);
-		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT2, GL_RENDERBUFFER, boardPosIdBuffer.getRenderbufferId());
-		depthStencilBuffer = new Renderbuffer(width, height, GL_DEPTH24_STENCIL8);
+		// Both ids share one attachment so a pick is a single read
+		idBuffer = withIds ? new Renderbuffer(getCapacityWidth(), getCapacityHeight(), GL_RG32I) : null;
+		if (withIds)
+			glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_RENDERBUFFER, idBuffer.getRenderbufferId());
+		depthStencilBuffer = new Renderbuffer(getCapacityWidth(), getCapacityHeight(), GL_DEPTH24_STENCIL8);
 		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthStencilBuffer.getRenderbufferId());
+		// Draw buffers are framebuffer state, set once rather than on every bind
+		if (withIds)
+			glDrawBuffers(new int[] { GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1 });
+		else
+			glDrawBuffer(GL_COLOR_ATTACHMENT0);
 		checkStatus();
 		unbind();
 	}
 
 	@Override
 	public void clearData() {
-		super.bind();
-		glClearBufferiv(GL_COLOR, 1, new int[] { -1 });
-		glClearBufferiv(GL_COLOR, 2, new int[] { -1 });
+		bind();
+		if (idBuffer != null)
+			glClearBufferiv(GL_COLOR, 1, CLEAR_IDS);
 	}
 
 	@Override
-	public void bind() {
-		super.bind();
-		glDrawBuffers(new int[] { GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1, GL_COLOR_ATTACHMENT2 });
+	protected void resizeAttachments(int capacityWidth, int capacityHeight) {
+		if (idBuffer != null)
+			idBuffer.resize(capacityWidth, capacityHeight);
+		depthStencilBuffer.resize(capacityWidth, capacityHeight);
 	}
 
 	@Override
 	public void delete() {
 		super.delete();
-		pieceIdBuffer.delete();
-		boardPosIdBuffer.delete();
+		if (idBuffer != null)
+			idBuffer.delete();
 		depthStencilBuffer.delete();
 	}
 
+	public boolean hasIds() {
+		return idBuffer != null;
+	}
+
 	public Data getIds(int x, int y) {
-		if (x < 0 || x > getWidth() || y < 0 || y > getHeight()) {
+		if (!hasIds() || !contains(x, y)) {
 			return new Data(-1, -1);
 		}
-		super.bind();
-		int[] pd = new int[1];
+		bind();
+		int[] ids = new int[2];
 		glReadBuffer(GL_COLOR_ATTACHMENT1);
-		glReadPixels(x, y, 1, 1, GL_RED_INTEGER, GL_INT, pd);
-		int[] bd = new int[1];
-		glReadBuffer(GL_COLOR_ATTACHMENT2);
-		glReadPixels(x, y, 1, 1, GL_RED_INTEGER, GL_INT, bd);
+		glReadPixels(x, y, 1, 1, GL_RG_INTEGER, GL_INT, ids);
 		unbind();
-		return new Data(pd[0], bd[0]);
+		return new Data(ids[0], ids[1]);
+	}
+
+	// Queues the read on the reader, the callback runs from the reader's poll() once the GPU is done.
+	// With every reader slot still in flight it reads synchronously instead, so no click is lost.
+	public void requestIds(AsyncPixelReader reader, int x, int y, Consumer<Data> callback) {
+		if (!hasIds() || !contains(x, y)) {
+			callback.accept(new Data(-1, -1));
+			return;
+		}
+		bind();
+		glReadBuffer(GL_COLOR_ATTACHMENT1);
+		boolean queued = reader.request(x, y, GL_RG_INTEGER, GL_INT, pixel -> callback.accept(new Data(pixel.getInt(0), pixel.getInt(4))));
+		unbind();
+		if (!queued)
+			callback.accept(getIds(x, y));
+	}
+
+	private boolean contains(int x, int y) {
+		return x >= 0 && x < getWidth() && y >= 0 && y < getHeight();
 	}
 }
@@ -1,10 +1,19 @@
 package com.crossly.chess;
 
+import com.crossly.chess.database.ExplorerTable;
+import com.crossly.chess.notation.MoveNotation;
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.MoveList;
+import com.crossly.chess.rules.Position;
 import com.crossly.engine.Engine;
+import com.crossly.engine.graphics.AsyncPixelReader;
 import com.crossly.engine.graphics.Camera3D;
 import com.crossly.engine.graphics.Framebuffer;
+import com.crossly.engine.graphics.InstanceBuffer;
 import com.crossly.engine.graphics.Mesh;
+import com.crossly.engine.graphics.Model;
 import com.crossly.engine.graphics.Shader;
+import com.crossly.engine.graphics.UniformBuffer;
 import com.crossly.engine.time.Timer;
 import org.joml.*;
 
@@ -16,16 +25,77 @@ import java.util.*;
 
 public class BoardManager {
 
-	private static final Shader PIECE_DIFFUSE_SHADER, BOARD_FLAT_SHADER;
-	private static final Vector4f BOARD_LIGHT, BOARD_DARK;
+	private static final Shader PIECE_DIFFUSE_SHADER, PIECE_INVERSE_SHADER, PIECE_INSTANCED_SHADER, BOARD_FLAT_SHADER, BOARD_INSTANCED_SHADER;
+	private static final Vector4f BOARD_LIGHT, BOARD_DARK, HIGHLIGHT_WHITE, HIGHLIGHT_BLACK;
+	private static final Mesh BOARD_MESH;
+	// Uniform locations of the per square/per piece path, resolved once
+	private static final int PIECE_MODEL_UNIFORM, PIECE_NORMAL_UNIFORM, PIECE_COLOR_UNIFORM, PIECE_ID_UNIFORM;
+	private static final int PIECE_INVERSE_MODEL_UNIFORM, PIECE_INVERSE_COLOR_UNIFORM, PIECE_INVERSE_ID_UNIFORM;
+	private static final int BOARD_MODEL_UNIFORM, BOARD_COLOR_UNIFORM, BOARD_ID_UNIFORM;
+	// std140 Camera block shared by the board and piece shaders: projection * view, view, projection, camera position
+	private static final int CAMERA_BINDING = 0;
+	private static final UniformBuffer CAMERA_BLOCK;
+	// Per square: vec2 offset, vec4 color, int board position id
+	private static final InstanceBuffer BOARD_INSTANCES;
+	// Per piece: mat4 model, vec3 color, int piece id, mat3 normal, one buffer per model
+	private static final EnumMap<ChessPiece.Type, InstanceBuffer> PIECE_INSTANCES = new EnumMap<>(ChessPiece.Type.class);
+	private static final Vector3f SELECTED_COLOR = new Vector3f(.8f, .6f, 0);
+	private static final float DEFAULT_TARGET_MILLISECONDS = 8;
+	private static final float MIN_RENDER_SCALE = .5f;
+	private static final float RENDER_SCALE_STEP = .05f;
+	// The GPU timer is smoothed over a few frames, it needs this long to reflect a new scale
+	private static final int SCALE_SETTLE_FRAMES = 30;
+	private static final float UPSCALE_SHARPNESS = .2f;
 
 	static {
+		String pieceFragment = """
+						#version 330 core
+						#define LIGHT_DIR normalize(vec3(1.0, 1.0, -1.0))
+						layout (location = 0) out vec4 oFragColor;
+						layout (location = 1) out ivec2 oIds;
+						uniform vec3 uColor;
+						uniform int uPieceId;
+						in vec3 iNorm;
+						void main() {
+							oIds = ivec2(uPieceId, -1);
+							float diffuseMul = max(dot(LIGHT_DIR, iNorm), 0.0);
+							oFragColor = vec4((0.25 + diffuseMul) * uColor, 1.0);
+						}
+						""";
 		PIECE_DIFFUSE_SHADER = new Shader(
 				"""
 						#version 330 core
 						layout (location = 0) in vec3 aPos;
 						layout (location = 2) in vec3 aNorm;
-						uniform mat4 uProjView;
+						layout (std140) uniform Camera {
+							mat4 uProjView;
+							mat4 uView;
+							mat4 uProjection;
+							vec3 uCameraPosition;
+						};
+						uniform mat4 uModel;
+						uniform mat3 uNormal;
+						out vec3 iNorm;
+						void main() {
+							iNorm = uNormal * aNorm;
+							gl_Position = uProjView * uModel * vec4(aPos, 1.0);
+						}
+						""",
+pieceFragment,
+				false
+		);
+		// The per vertex inverse transpose the CPU side normal matrix replaced, kept for comparison
+		PIECE_INVERSE_SHADER = new Shader(
+				"""
+						#version 330 core
+						layout (location = 0) in vec3 aPos;
+						layout (location = 2) in vec3 aNorm;
+						layout (std140) uniform Camera {
+							mat4 uProjView;
+							mat4 uView;
+							mat4 uProjection;
+							vec3 uCameraPosition;
+						};
 						uniform mat4 uModel;
 						out vec3 iNorm;
 						void main() {
@@ -33,18 +103,46 @@ public class BoardManager {
 							gl_Position = uProjView * uModel * vec4(aPos, 1.0);
 						}
 						""",
+				pieceFragment,
+				false
+		);
+		PIECE_INSTANCED_SHADER = new Shader(
+				"""
+						#version 330 core
+						layout (location = 0) in vec3 aPos;
+						layout (location = 2) in vec3 aNorm;
+						layout (location = 3) in mat4 aModel;
+						layout (location = 7) in vec3 aColor;
+						layout (location = 8) in int aPieceId;
+						layout (location = 9) in mat3 aNormal;
+						layout (std140) uniform Camera {
+							mat4 uProjView;
+							mat4 uView;
+							mat4 uProjection;
+							vec3 uCameraPosition;
+						};
+						out vec3 iNorm;
+						flat out vec3 iColor;
+						flat out int iPieceId;
+						void main() {
+							iNorm = aNormal * aNorm;
+							iColor = aColor;
+							iPieceId = aPieceId;
+							gl_Position = uProjView * aModel * vec4(aPos, 1.0);
+						}
+						""",
 				"""
 						#version 330 core
 						#define LIGHT_DIR normalize(vec3(1.0, 1.0, -1.0))
 						layout (location = 0) out vec4 oFragColor;
-						layout (location = 1) out int oPieceId;
-						uniform vec3 uColor;
-						uniform int uPieceId;
+						layout (location = 1) out ivec2 oIds;
 						in vec3 iNorm;
+						flat in vec3 iColor;
+						flat in int iPieceId;
 						void main() {
-							oPieceId = uPieceId;
+							oIds = ivec2(iPieceId, -1);
 							float diffuseMul = max(dot(LIGHT_DIR, iNorm), 0.0);
-							oFragColor = vec4((0.25 + diffuseMul) * uColor, 1.0);
+							oFragColor = vec4((0.25 + diffuseMul) * iColor, 1.0);
 						}
 						""",
 				false
@@ -53,7 +151,12 @@ public class BoardManager {
 				"""
 						#version 330 core
 						layout (location = 0) in vec2 aPos;
-						uniform mat4 uProjView;
+						layout (std140) uniform Camera {
+							mat4 uProjView;
+							mat4 uView;
+							mat4 uProjection;
+							vec3 uCameraPosition;
+						};
 						uniform mat4 uModel;
 						void main() {
 							vec4 pos = vec4(aPos.x * 0.5, 0.0, aPos.y * 0.5, 1.0);
@@ -63,18 +166,82 @@ public class BoardManager {
 				"""
 						#version 330 core
 						layout (location = 0) out vec4 oFragColor;
-						layout (location = 2) out int oBoardId;
+						layout (location = 1) out ivec2 oIds;
 						uniform vec4 uColor;
 						uniform int uBoardId;
 						void main() {
-							oBoardId = uBoardId;
+							oIds = ivec2(-1, uBoardId);
 							oFragColor = uColor;
 						}
 						""",
 				false
 		);
+		BOARD_INSTANCED_SHADER = new Shader(
+				"""
+						#version 330 core
+						layout (location = 0) in vec2 aPos;
+						layout (location = 3) in vec2 aOffset;
+						layout (location = 4) in vec4 aColor;
+						layout (location = 5) in int aBoardId;
+						layout (std140) uniform Camera {
+							mat4 uProjView;
+							mat4 uView;
+							mat4 uProjection;
+							vec3 uCameraPosition;
+						};
+						flat out vec4 iColor;
+						flat out int iBoardId;
+						void main() {
+							iColor = aColor;
+							iBoardId = aBoardId;
+							gl_Position = uProjView * vec4(aPos.x * 0.5 + aOffset.x, 0.0, aPos.y * 0.5 + aOffset.y, 1.0);
+						}
+						""",
+				"""
+						#version 330 core
+						layout (location = 0) out vec4 oFragColor;
+						layout (location = 1) out ivec2 oIds;
+						flat in vec4 iColor;
+						flat in int iBoardId;
+						void main() {
+							oIds = ivec2(-1, iBoardId);
+							oFragColor = iColor;
+						}
+						""",
+				false
+		);
 		BOARD_LIGHT = new Vector4f(.8f, .75f, .7f, 1);
 		BOARD_DARK = new Vector4f(.22f, .18f, .1f, 1);
+		HIGHLIGHT_WHITE = new Vector4f(0, .3f, .6f, 1);
+		HIGHLIGHT_BLACK = new Vector4f(.8f, .2f, .1f, 1);
+		PIECE_MODEL_UNIFORM = PIECE_DIFFUSE_SHADER.getUniform("uModel");
+		PIECE_NORMAL_UNIFORM = PIECE_DIFFUSE_SHADER.getUniform("uNormal");
+		PIECE_COLOR_UNIFORM = PIECE_DIFFUSE_SHADER.getUniform("uColor");
+		PIECE_ID_UNIFORM = PIECE_DIFFUSE_SHADER.getUniform("uPieceId");
+		PIECE_INVERSE_MODEL_UNIFORM = PIECE_INVERSE_SHADER.getUniform("uModel");
+		PIECE_INVERSE_COLOR_UNIFORM = PIECE_INVERSE_SHADER.getUniform("uColor");
+		PIECE_INVERSE_ID_UNIFORM = PIECE_INVERSE_SHADER.getUniform("uPieceId");
+		BOARD_MODEL_UNIFORM = BOARD_FLAT_SHADER.getUniform("uModel");
+		BOARD_COLOR_UNIFORM = BOARD_FLAT_SHADER.getUniform("uColor");
+		BOARD_ID_UNIFORM = BOARD_FLAT_SHADER.getUniform("uBoardId");
+		CAMERA_BLOCK = new UniformBuffer(CAMERA_BINDING, 208);
+		for (var shader : new Shader[] { PIECE_DIFFUSE_SHADER, PIECE_INVERSE_SHADER, PIECE_INSTANCED_SHADER, BOARD_FLAT_SHADER, BOARD_INSTANCED_SHADER })
+			shader.bindUniformBlock("Camera", CAMERA_BINDING);
+		BOARD_MESH = Mesh.createUnit2DMesh();
+		BOARD_INSTANCES = new InstanceBuffer(64,
+				InstanceBuffer.Attribute.floats(3, 2),
+				InstanceBuffer.Attribute.floats(4, 4),
+				InstanceBuffer.Attribute.ints(5, 1));
+		BOARD_INSTANCES.attach(BOARD_MESH);
+		for (var type : ChessPiece.Type.values()) {
+			var instances = new InstanceBuffer(32,
+					InstanceBuffer.Attribute.matrix(3, 4, 4),
+					InstanceBuffer.Attribute.floats(7, 3),
+					InstanceBuffer.Attribute.ints(8, 1),
+					InstanceBuffer.Attribute.matrix(9, 3, 3));
+			type.getModel().attach(instances);
+			PIECE_INSTANCES.put(type, instances);
+		}
 	}
 
 	private interface MoveAction {
@@ -82,6 +249,7 @@ public class BoardManager {
 	}
 
 	private BoardFramebuffer framebuffer;
+	private final AsyncPixelReader pickReader = new AsyncPixelReader(BoardFramebuffer.ID_PIXEL_BYTES);
 	private final ArrayList<ChessPiece> pieces = new ArrayList<>(32);
 	private final Camera3D camera;
 	private ChessPiece selectedPiece = null;
@@ -95,9 +263,32 @@ public class BoardManager {
 	private boolean drawDebug = false;
 	private int promotablePieceId = -1;
 	private ChessPiece checkingPiece = null;
+	private final MoveNotation notation = new MoveNotation();
+	private final MoveList legalMoves = new MoveList();
+	private final ArrayList<String> moveHistory = new ArrayList<>();
+	private Position promotionPosition = null;
+	private int promotionFrom, promotionTo;
+	private int selectionVersion = 0;
+	private boolean instanced = true;
+	private int boardInstancesVersion = -1;
+	private final Matrix4f pieceModel = new Matrix4f();
+	private boolean cpuPicking = false;
+	private int cameraBlockVersion = -1;
+	private int viewWidth, viewHeight;
+	// The inverse transpose of the model matrix is worked out once per piece here rather than per vertex
+	private final Matrix3f pieceNormal = new Matrix3f();
+	private boolean shaderNormals = false;
+	// Dynamic resolution renders the board at renderScale of the window size, picked from the
+	// measured GPU time, and upscales it with sharpening
+	private boolean dynamicResolution = false;
+	private float renderScale = 1;
+	private float targetMilliseconds = DEFAULT_TARGET_MILLISECONDS;
+	private int framesSinceScaleChange = 0;
 
 	public BoardManager(int width, int height) {
 		framebuffer = new BoardFramebuffer(width, height);
+		viewWidth = width;
+		viewHeight = height;
 		for (int i = 1; i <= 16; i++) {
 			if (i <= 8) {
 				pieces.add(new ChessPiece(i, ChessPiece.Type.PAWN, ChessPiece.Color.WHITE, new Vector2f(i, 2)));
@@ -171,44 +362,207 @@ public class BoardManager {
 		}
 	}
 
+	// Only reallocates when the window grows past the framebuffer's capacity
 	public void resizeFramebuffer(int width, int height) {
-		framebuffer.delete();
-		framebuffer = new BoardFramebuffer(width, height);
+		viewWidth = width;
+		viewHeight = height;
+		framebuffer.resize(getRenderWidth(), getRenderHeight());
 		camera.setAspect((float) width / height);
 	}
 
+	private int getRenderWidth() {
+		return Math.max(1, Math.round(viewWidth * renderScale));
+	}
+
+	private int getRenderHeight() {
+		return Math.max(1, Math.round(viewHeight * renderScale));
+	}
+
+	public boolean isDynamicResolution() {
+		return dynamicResolution;
+	}
+
+	public void setDynamicResolution(boolean dynamicResolution) {
+		this.dynamicResolution = dynamicResolution;
+		if (!dynamicResolution)
+			setRenderScale(1);
+	}
+
+	public float getRenderScale() {
+		return renderScale;
+	}
+
+	public float getTargetMilliseconds() {
+		return targetMilliseconds;
+	}
+
+	public void setTargetMilliseconds(float targetMilliseconds) {
+		this.targetMilliseconds = targetMilliseconds;
+	}
+
+	// Call once per rendered frame with the board's GPU time. Fill cost goes with the pixel count,
+	// so the scale moves by the square root of how far off the target the time is. The bands
+	// around the target and the settle time keep it from oscillating.
+	public void updateRenderScale(float gpuMilliseconds) {
+		if (!dynamicResolution || gpuMilliseconds <= 0 || ++framesSinceScaleChange < SCALE_SETTLE_FRAMES)
+			return;
+		float scale = renderScale;
+		if (gpuMilliseconds > targetMilliseconds * 1.05f)
+			scale = renderScale * (float) Math.sqrt(targetMilliseconds / gpuMilliseconds);
+		else if (gpuMilliseconds < targetMilliseconds * .8f)
+			scale = renderScale * Math.min(1.1f, (float) Math.sqrt(targetMilliseconds / gpuMilliseconds));
+		scale = Math.round(scale / RENDER_SCALE_STEP) * RENDER_SCALE_STEP;
+		setRenderScale(Math.max(MIN_RENDER_SCALE, Math.min(1, scale)));
+	}
+
+	// Stays within the framebuffer's capacity, so changing the scale never reallocates
+	private void setRenderScale(float scale) {
+		if (scale == renderScale)
+			return;
+		renderScale = scale;
+		framesSinceScaleChange = 0;
+		framebuffer.resize(getRenderWidth(), getRenderHeight());
+	}
+
 	public void render() {
+		updateCameraBlock();
 		framebuffer.bind();
 		framebuffer.clear();
 		{
-			BOARD_FLAT_SHADER.use();
-			BOARD_FLAT_SHADER.setMatrix4("uProjView", camera.getProjectionViewMatrix());
+			if (instanced) {
+				renderBoardInstanced();
+				renderPiecesInstanced();
+			} else {
+				renderBoard();
+				renderPieces();
+			}
+		}
+		Framebuffer.unbind();
+		framebuffer.drawToScreen(renderScale < 1 ? UPSCALE_SHARPNESS : 0);
+	}
+
+	// Uploaded only when the camera matrices changed, every shader reads it through the Camera binding
+	private void updateCameraBlock() {
+		if (cameraBlockVersion == camera.getVersion())
+			return;
+		cameraBlockVersion = camera.getVersion();
+		CAMERA_BLOCK.setMatrix4(0, camera.getProjectionViewMatrix());
+		CAMERA_BLOCK.setMatrix4(64, camera.getLookMatrix());
+		CAMERA_BLOCK.setMatrix4(128, camera.getProjectionMatrix());
+		CAMERA_BLOCK.setFloat3(192, camera.getPosition());
+		CAMERA_BLOCK.upload();
+	}
+
+	// Pieces are bucketed by type so each model is drawn once for all of its pieces
+	private void renderPiecesInstanced() {
+		PIECE_INSTANCES.values().forEach(InstanceBuffer::begin);
+		for (var piece : pieces) {
+			var buffer = PIECE_INSTANCES.get(piece.getType()).getData();
+			getPieceModel(piece, pieceModel).get(buffer);
+			buffer.position(buffer.position() + 64);
+			(isSelected(piece) ? SELECTED_COLOR : piece.getColor().getColor()).get(buffer);
+			buffer.position(buffer.position() + 12);
+			buffer.putInt(piece.getPieceId());
+			pieceModel.normal(pieceNormal).get(buffer);
+			buffer.position(buffer.position() + 36);
+		}
+		PIECE_INSTANCED_SHADER.use();
+		PIECE_INSTANCES.forEach((type, instances) -> {
+			instances.end();
+			if (instances.getCount() > 0)
+				type.getModel().drawInstanced(PIECE_INSTANCED_SHADER, instances.getCount());
+		});
+	}
+
+	private void renderPieces() {
+		if (shaderNormals) {
+			renderPiecesShaderNormals();
+			return;
+		}
+		PIECE_DIFFUSE_SHADER.use();
+		for (var piece : pieces) {
+			PIECE_DIFFUSE_SHADER.setMatrix4(PIECE_MODEL_UNIFORM, getPieceModel(piece, pieceModel));
+			PIECE_DIFFUSE_SHADER.setMatrix3(PIECE_NORMAL_UNIFORM, pieceModel.normal(pieceNormal));
+			PIECE_DIFFUSE_SHADER.setFloat3(PIECE_COLOR_UNIFORM, isSelected(piece) ? SELECTED_COLOR : piece.getColor().getColor());
+			PIECE_DIFFUSE_SHADER.setInt(PIECE_ID_UNIFORM, piece.getPieceId());
+			piece.getType().getModel().draw(PIECE_DIFFUSE_SHADER);
+		}
+	}
+
+	private void renderPiecesShaderNormals() {
+		PIECE_INVERSE_SHADER.use();
+		for (var piece : pieces) {
+			PIECE_INVERSE_SHADER.setMatrix4(PIECE_INVERSE_MODEL_UNIFORM, getPieceModel(piece, pieceModel));
+			PIECE_INVERSE_SHADER.setFloat3(PIECE_INVERSE_COLOR_UNIFORM, isSelected(piece) ? SELECTED_COLOR : piece.getColor().getColor());
+			PIECE_INVERSE_SHADER.setInt(PIECE_INVERSE_ID_UNIFORM, piece.getPieceId());
+			piece.getType().getModel().draw(PIECE_INVERSE_SHADER);
+		}
+	}
+
+	private static Matrix4f getPieceModel(ChessPiece piece, Matrix4f model) {
+		return model.translation(piece.getPosition().x(), 0, piece.getPosition().y())
+				.scale(.8f)
+				.rotateY(piece.getType() == ChessPiece.Type.KNIGHT ? (float) Math.toRadians(piece.getColor() == ChessPiece.Color.BLACK ? 90 : -90) : 0);
+	}
+
+	private boolean isSelected(ChessPiece piece) {
+		return selectedPiece != null && selectedPiece.getPieceId() == piece.getPieceId();
+	}
+
+	// One draw call for all 64 squares, the instance data is only rebuilt when the highlighted moves change
+	private void renderBoardInstanced() {
+		if (boardInstancesVersion != selectionVersion) {
+			boardInstancesVersion = selectionVersion;
+			var data = BOARD_INSTANCES.begin();
 			for (int y = 1; y <= 8; y++) {
 				for (int x = 1; x <= 8; x++) {
-					BOARD_FLAT_SHADER.setMatrix4("uModel", new Matrix4f().translate(x, 0, y));
-					if (moveActions.containsKey(BoardFramebuffer.Data.generateBoardPosId(x, y)) && selectedPiece != null && drawDebug)
-						BOARD_FLAT_SHADER.setFloat4("uColor", selectedPiece.getColor() == ChessPiece.Color.WHITE ? new Vector4f(0, .3f, .6f, 1) : new Vector4f(.8f, .2f, .1f, 1));
-					else
-						BOARD_FLAT_SHADER.setFloat4("uColor", (x + y) % 2 == 1 ? BOARD_DARK : BOARD_LIGHT);
-					BOARD_FLAT_SHADER.setInt("uBoardId", BoardFramebuffer.Data.generateBoardPosId(x, y));
-					Mesh.UNIT_2D_MESH.draw();
+					int boardPosId = BoardFramebuffer.Data.generateBoardPosId(x, y);
+					data.putFloat(x).putFloat(y);
+					getSquareColor(x, y).get(data);
+					data.position(data.position() + 16);
+					data.putInt(boardPosId);
 				}
 			}
-			PIECE_DIFFUSE_SHADER.use();
-			PIECE_DIFFUSE_SHADER.setMatrix4("uProjView", camera.getProjectionViewMatrix());
-			for (var piece : pieces) {
-				PIECE_DIFFUSE_SHADER.setMatrix4("uModel", new Matrix4f()
-						.translate(piece.getPosition().x(), 0, piece.getPosition().y())
-						.scale(.8f)
-						.rotateY(piece.getType() == ChessPiece.Type.KNIGHT ? (float) Math.toRadians(piece.getColor() == ChessPiece.Color.BLACK ? 90 : -90) : 0));
-				PIECE_DIFFUSE_SHADER.setFloat3("uColor", selectedPiece != null && selectedPiece.getPieceId() == piece.getPieceId() ?
-						new Vector3f(.8f, .6f, 0) : piece.getColor().getColor());
-				PIECE_DIFFUSE_SHADER.setInt("uPieceId", piece.getPieceId());
-				piece.getType().getModel().draw(PIECE_DIFFUSE_SHADER);
+			BOARD_INSTANCES.end();
+		}
+		BOARD_INSTANCED_SHADER.use();
+		BOARD_MESH.drawInstanced(BOARD_INSTANCES.getCount());
+	}
+
+	private void renderBoard() {
+		BOARD_FLAT_SHADER.use();
+		for (int y = 1; y <= 8; y++) {
+			for (int x = 1; x <= 8; x++) {
+				BOARD_FLAT_SHADER.setMatrix4(BOARD_MODEL_UNIFORM, pieceModel.translation(x, 0, y));
+				BOARD_FLAT_SHADER.setFloat4(BOARD_COLOR_UNIFORM, getSquareColor(x, y));
+				BOARD_FLAT_SHADER.setInt(BOARD_ID_UNIFORM, BoardFramebuffer.Data.generateBoardPosId(x, y));
+				Mesh.UNIT_2D_MESH.draw();
 			}
 		}
-		Framebuffer.unbind();
-		framebuffer.drawToScreen();
+	}
+
+	private Vector4f getSquareColor(int x, int y) {
+		if (moveActions.containsKey(BoardFramebuffer.Data.generateBoardPosId(x, y)) && selectedPiece != null && drawDebug)
+			return selectedPiece.getColor() == ChessPiece.Color.WHITE ? HIGHLIGHT_WHITE : HIGHLIGHT_BLACK;
+		return (x + y) % 2 == 1 ? BOARD_DARK : BOARD_LIGHT;
+	}
+
+	public boolean isInstanced() {
+		return instanced;
+	}
+
+	// Switches between the instanced and the per square/per piece draw paths for comparison
+	public void setInstanced(boolean instanced) {
+		this.instanced = instanced;
+	}
+
+	public boolean isShaderNormals() {
+		return shaderNormals;
+	}
+
+	// Makes the per piece path invert the model matrix per vertex instead of uploading the normal matrix
+	public void setShaderNormals(boolean shaderNormals) {
+		this.shaderNormals = shaderNormals;
 	}
 
 	public boolean isSwitchingSides() {
@@ -227,14 +581,45 @@ public class BoardManager {
 		pieces.stream().filter(p -> p.getPieceId() == promotablePieceId && p.isInPlay()).findFirst()
 				.ifPresent(piece -> {
 					piece.setType(type);
+					if (promotionPosition != null)
+						recordMove(promotionPosition, promotionFrom, promotionTo, toRulesType(type));
 					swapSides(piece.getColor());
 				});
-
+		promotionPosition = null;
 		promotablePieceId = -1;
 	}
 
+	// Plays a move through the same move actions a click would, false when the board does not offer it
+	public boolean playMove(int move) {
+		if (isPiecePromotable())
+			return false;
+		int from = Move.from(move);
+		var piece = getPieceAtPosition(8 - Position.fileOf(from), Position.rankOf(from) + 1);
+		if (piece == null || piece.getColor() != turn)
+			return false;
+		selectedPiece = piece;
+		generateMoves(piece);
+		cullUnsafe();
+		int boardPosId = toBoardPosId(Move.to(move));
+		boolean offered = moveActions.containsKey(boardPosId);
+		if (offered) {
+			performMove(boardPosId);
+			if (Move.promotion(move) != Position.EMPTY) {
+				promotablePieceId = piece.getPieceId();
+				promotePiece(toPieceType(Move.promotion(move)));
+			}
+		} else {
+			selectedPiece = null;
+			moveActions.clear();
+		}
+		selected = selectedPiece != null;
+		selectionVersion++;
+		return offered;
+	}
+
 	public void setDrawDebug(boolean drawDebug) {
 		this.drawDebug = drawDebug;
+		boardInstancesVersion = -1;
 	}
 
 	public void rotateToSide() {
@@ -256,21 +641,87 @@ public class BoardManager {
 		}
 	}
 
-	// Order: Take > Move > Selection
+	// The ids are read back asynchronously, the pick resolves in a later pollPicks(). With CPU
+	// picking the pick resolves immediately from a ray cast.
 	public void pick(Vector2i screenPos) {
-		var data = framebuffer.getIds(screenPos.x(), screenPos.y());
+		if (cpuPicking)
+			pick(rayPick(screenPos.x(), screenPos.y()));
+		else
+			framebuffer.requestIds(pickReader, (int) (screenPos.x() * renderScale), (int) (screenPos.y() * renderScale), this::pick);
+	}
+
+	public boolean isCpuPicking() {
+		return cpuPicking;
+	}
+
+	// CPU picking drops the id attachment from the board framebuffer, so nothing but color is written per frame
+	public void setCpuPicking(boolean cpuPicking) {
+		if (this.cpuPicking == cpuPicking)
+			return;
+		this.cpuPicking = cpuPicking;
+		framebuffer.delete();
+		framebuffer = new BoardFramebuffer(viewWidth, viewHeight, !cpuPicking);
+		framebuffer.resize(getRenderWidth(), getRenderHeight());
+	}
+
+	// Casts a ray from the window position (y from the bottom) against every in-play piece's
+	// bounding box and the board plane and returns whichever is hit first
+	private BoardFramebuffer.Data rayPick(int x, int y) {
+		Vector3f origin = new Vector3f(), direction = new Vector3f();
+		camera.getPickRay(x, y, viewWidth, viewHeight, origin, direction);
+		Vector3f localOrigin = new Vector3f(), localDirection = new Vector3f();
+		Vector2f hit = new Vector2f();
+		Matrix4f inverse = new Matrix4f();
+		float nearest = Float.POSITIVE_INFINITY;
+		int pieceId = -1;
+		for (var piece : pieces) {
+			if (!piece.isInPlay())
+				continue;
+			// The ray parameter is unchanged by the affine change into model space
+			getPieceModel(piece, inverse).invertAffine();
+			inverse.transformPosition(origin, localOrigin);
+			inverse.transformDirection(direction, localDirection);
+			Model model = piece.getType().getModel();
+			if (Intersectionf.intersectRayAab(localOrigin, localDirection, model.getBoundsMin(), model.getBoundsMax(), hit) && hit.x < nearest) {
+				nearest = hit.x;
+				pieceId = piece.getPieceId();
+			}
+		}
+		int boardPosId = -1;
+		if (direction.y() < 0) {
+			float t = -origin.y() / direction.y();
+			int boardX = Math.round(origin.x() + direction.x() * t);
+			int boardY = Math.round(origin.z() + direction.z() * t);
+			if (t < nearest && boardX >= 1 && boardX <= 8 && boardY >= 1 && boardY <= 8) {
+				boardPosId = BoardFramebuffer.Data.generateBoardPosId(boardX, boardY);
+				pieceId = -1;
+			}
+		}
+		return new BoardFramebuffer.Data(pieceId, boardPosId);
+	}
+
+	public void pollPicks() {
+		pickReader.poll();
+	}
+
+	public boolean isPickPending() {
+		return pickReader.isPending();
+	}
+
+	// Order: Take > Move > Selection
+	private void pick(BoardFramebuffer.Data data) {
 		if (selected && data.pieceId() >= 0) {
 			// Take or deselect
 			pieces.stream().filter(p -> p.getPieceId() == data.pieceId() && p.isInPlay()).findFirst()
 					.ifPresentOrElse(piece -> {
 						int boardId = BoardFramebuffer.Data.generateBoardPosId(piece.getPosition());
 						if (moveActions.containsKey(boardId))
-							moveActions.get(boardId).fn();
+							performMove(boardId);
 					}, () -> selectedPiece = null);
 		} else if (selected && data.boardPosId() >= 0) {
 			// Move or deselect
 			if (moveActions.containsKey(data.boardPosId())) {
-				moveActions.get(data.boardPosId()).fn();
+				performMove(data.boardPosId());
 				if (selectedPiece != null && selectedPiece.getType() == ChessPiece.Type.PAWN && ((int) selectedPiece.getPosition().y() == 8 || (int) selectedPiece.getPosition().y() == 1)) {
 					promotablePieceId = selectedPiece.getPieceId();
 				}
@@ -291,15 +742,44 @@ public class BoardManager {
 			}
 		}
 		selected = selectedPiece != null;
+		selectionVersion++;
+	}
+
+	// Changes whenever the selection or its possible moves may have changed
+	public int getSelectionVersion() {
+		return selectionVersion;
+	}
+
+	// Explorer stats of the selected piece's moves keyed by destination board position id. A
+	// destination reached by several promotions keeps the most played one.
+	public Map<Integer, ExplorerTable.MoveStats> getExplorerStats(ExplorerTable explorer) {
+		if (selectedPiece == null || moveActions.isEmpty())
+			return Map.of();
+		int from = toSquare(selectedPiece.getPosition());
+		Map<Integer, ExplorerTable.MoveStats> stats = new HashMap<>();
+		for (var stat : explorer.lookup(toPosition())) {
+			int boardPosId = toBoardPosId(stat.to());
+			if (stat.from() == from && moveActions.containsKey(boardPosId))
+				stats.merge(boardPosId, stat, (a, b) -> a.games() >= b.games() ? a : b);
+		}
+		return stats;
 	}
 
 	public void deleteFramebuffer() {
 		framebuffer.delete();
+		pickReader.delete();
 	}
 
 	public static void delete() {
 		BOARD_FLAT_SHADER.delete();
+		BOARD_INSTANCED_SHADER.delete();
+		BOARD_INSTANCES.delete();
+		CAMERA_BLOCK.delete();
+		PIECE_INSTANCED_SHADER.delete();
+		PIECE_INSTANCES.values().forEach(InstanceBuffer::delete);
+		BOARD_MESH.delete();
 		PIECE_DIFFUSE_SHADER.delete();
+		PIECE_INVERSE_SHADER.delete();
 	}
 
 	public String generateSave() {
@@ -321,6 +801,100 @@ public class BoardManager {
 		return checkingPiece != null;
 	}
 
+	public List<String> getMoveHistory() {
+		return Collections.unmodifiableList(moveHistory);
+	}
+
+	public Position toPosition() {
+		Position position = new Position();
+		for (var piece : pieces) {
+			if (!piece.isInPlay())
+				continue;
+			int type = toRulesType(piece.getType());
+			int square = toSquare(piece.getPosition());
+			position.setPiece(square, piece.getColor() == ChessPiece.Color.BLACK ? type | Position.BLACK : type);
+			int lastY = piece.getLastPosition().y();
+			if (piece.getType() == ChessPiece.Type.PAWN && lastY != 0 && Math.abs(lastY - (int) piece.getPosition().y()) == 2)
+				position.setEpSquare(Position.square(Position.fileOf(square), (lastY + (int) piece.getPosition().y()) / 2 - 1));
+		}
+		int castling = 0;
+		for (var king : pieces.stream().filter(p -> p.getType() == ChessPiece.Type.KING && p.isInPlay() && p.isNotMoved()).toList()) {
+			int y = (int) king.getPosition().y();
+			boolean white = king.getColor() == ChessPiece.Color.WHITE;
+			var kingSideRook = getPieceAtPosition(1, y);
+			var queenSideRook = getPieceAtPosition(8, y);
+			if (kingSideRook != null && kingSideRook.getType() == ChessPiece.Type.ROOK && kingSideRook.isNotMoved())
+				castling |= white ? Position.WHITE_KING_SIDE : Position.BLACK_KING_SIDE;
+			if (queenSideRook != null && queenSideRook.getType() == ChessPiece.Type.ROOK && queenSideRook.isNotMoved())
+				castling |= white ? Position.WHITE_QUEEN_SIDE : Position.BLACK_QUEEN_SIDE;
+		}
+		position.setCastling(castling);
+		position.setWhiteToMove(turn == ChessPiece.Color.WHITE);
+		return position;
+	}
+
+	// The board is drawn with x = 1 on the h-file, so files run opposite to x
+	public static int toSquare(int x, int y) {
+		return Position.square(8 - x, y - 1);
+	}
+
+	public static int toSquare(Vector2f position) {
+		return toSquare((int) position.x(), (int) position.y());
+	}
+
+	public static int toBoardPosId(int square) {
+		return BoardFramebuffer.Data.generateBoardPosId(8 - Position.fileOf(square), Position.rankOf(square) + 1);
+	}
+
+	private static int toRulesType(ChessPiece.Type type) {
+		return switch (type) {
+			case PAWN -> Position.PAWN;
+			case ROOK -> Position.ROOK;
+			case KNIGHT -> Position.KNIGHT;
+			case BISHOP -> Position.BISHOP;
+			case QUEEN -> Position.QUEEN;
+			case KING -> Position.KING;
+		};
+	}
+
+	private static ChessPiece.Type toPieceType(int type) {
+		return switch (type) {
+			case Position.ROOK -> ChessPiece.Type.ROOK;
+			case Position.KNIGHT -> ChessPiece.Type.KNIGHT;
+			case Position.BISHOP -> ChessPiece.Type.BISHOP;
+			case Position.KING -> ChessPiece.Type.KING;
+			case Position.PAWN -> ChessPiece.Type.PAWN;
+			default -> ChessPiece.Type.QUEEN;
+		};
+	}
+
+	private void performMove(int boardPosId) {
+		var mover = selectedPiece;
+		Position before = toPosition();
+		int from = toSquare(mover.getPosition());
+		int to = toSquare(boardPosId >> 4, boardPosId & 0xF);
+		moveActions.get(boardPosId).fn();
+		int y = (int) mover.getPosition().y();
+		if (mover.getType() == ChessPiece.Type.PAWN && (y == 8 || y == 1)) {
+			promotionPosition = before;
+			promotionFrom = from;
+			promotionTo = to;
+		} else
+			recordMove(before, from, to, Position.EMPTY);
+	}
+
+	private void recordMove(Position before, int from, int to, int promotion) {
+		int move = before.findMove(from, to, promotion);
+		StringBuilder text = new StringBuilder(8);
+		if (move == Move.NONE)
+			MoveNotation.appendCoordinates(from, to, promotion, text);
+		else {
+			before.generateLegalMoves(legalMoves);
+			notation.appendSan(before, move, legalMoves, text);
+		}
+		moveHistory.add(text.toString());
+	}
+
 	private ChessPiece getPieceAtPosition(int x, int y) {
 		return pieces.stream().filter(piece -> {
 			int ppx = (int) piece.getPosition().x();
@@ -341,6 +915,7 @@ public class BoardManager {
 		selectedPiece = null;
 		selected = false;
 		moveActions.clear();
+		selectionVersion++;
 		turn = color == ChessPiece.Color.WHITE ? ChessPiece.Color.BLACK : ChessPiece.Color.WHITE;
 		switchingSides = true;
 	}
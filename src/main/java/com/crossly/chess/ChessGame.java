@@ -1,22 +1,43 @@
 package com.crossly.chess;
 
+import com.crossly.chess.book.OpeningBook;
+import com.crossly.chess.database.ExplorerTable;
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
 import com.crossly.engine.Engine;
+import com.crossly.engine.ResourceManager;
 import com.crossly.engine.graphics.FontAtlas;
 import com.crossly.engine.graphics.Framebuffer;
+import com.crossly.engine.graphics.GLState;
 import com.crossly.engine.graphics.TextWriter;
 import com.crossly.engine.input.Input;
+import com.crossly.engine.time.GpuTimer;
 import org.joml.Vector2f;
 import org.joml.Vector2i;
 import org.joml.Vector3f;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class ChessGame extends Engine {
 
 	private BoardManager boardManager;
 	private TextWriter writer;
 	private boolean overlaid = true;
+	private ExplorerTable explorer = null;
+	private String explorerText = "";
+	private int explorerVersion = -1;
+	private OpeningBook book = null;
+	private final Random bookRandom = new Random();
+	private GpuTimer boardTimer;
+	private ResourceManager.Handle<FontAtlas> font;
+	private CompletableFuture<Void> modelLoad;
 
 	private static final int INIT_WIDTH = 1280, INIT_HEIGHT = 720;
 
@@ -25,14 +46,32 @@ public class ChessGame extends Engine {
 		setWindowWidth(INIT_WIDTH);
 		setWindowHeight(INIT_HEIGHT);
 		setWindowResizable(true);
+		setRenderOnDemand(true);
 	}
 
 	public void onCreate() {
-		writer = new TextWriter(new FontAtlas("fonts/IBMPlexSerif.ttf", 128), INIT_WIDTH, INIT_HEIGHT);
-		boardManager = new BoardManager(getWindowWidth(), getWindowHeight());
+		// The font and piece models decode on the asset loader's workers while a progress bar shows
+		font = getResources().font("fonts/IBMPlexSerif.ttf", 48, true);
+		modelLoad = ChessPiece.loadModels(getResources());
+		boardTimer = new GpuTimer();
+		// Built from an imported game store with GameStoreTool's explore command
+		if (Files.isDirectory(Path.of("explorer"))) {
+			try {
+				explorer = ExplorerTable.open(Path.of("explorer"));
+			} catch (IOException e) {
+				System.err.println("Could not open the opening explorer: " + e.getMessage());
+			}
+		}
+		openBook();
 	}
 
 	public void onUpdate(Input input) {
+		if (boardManager == null && !finishLoading()) {
+			if (input.isKeyJustPressed(Input.KEY_ESCAPE))
+				running = false;
+			return;
+		}
+		boardManager.pollPicks();
 		if (input.isKeyJustPressed(Input.KEY_ESCAPE)) {
 			if (overlaid)
 				running = false;
@@ -64,36 +103,89 @@ public class ChessGame extends Engine {
 		if (input.isKeyJustPressed(Input.KEY_D))
 			boardManager.setDrawDebug(!boardManager.isDrawDebug());
 
+		if (input.isKeyJustPressed(Input.KEY_I))
+			boardManager.setInstanced(!boardManager.isInstanced());
+
+		if (input.isKeyJustPressed(Input.KEY_N))
+			boardManager.setShaderNormals(!boardManager.isShaderNormals());
+
+		if (input.isKeyJustPressed(Input.KEY_C))
+			boardManager.setCpuPicking(!boardManager.isCpuPicking());
+
+		if (input.isKeyJustPressed(Input.KEY_H) && book != null && !overlaid) {
+			int move = book.pick(boardManager.toPosition(), bookRandom);
+			if (move == Move.NONE || !boardManager.playMove(move))
+				System.err.println("No book move for this position");
+		}
+
+		if (input.isKeyJustPressed(Input.KEY_S))
+			boardManager.setDynamicResolution(!boardManager.isDynamicResolution());
+
+		if (input.isKeyJustPressed(Input.KEY_M))
+			System.out.print(getResources().getReport());
+
 		if (input.isKeyJustPressed(Input.KEY_F5))
 			quickSave();
 
 		if (input.isKeyJustPressed(Input.KEY_F9))
 			quickLoad();
 
-		if (boardManager.isSwitchingSides())
+		if (boardManager.isSwitchingSides()) {
 			boardManager.rotateToSide();
+			requestRender();
+		}
+		// The GPU timing overlay needs continuous frames to stay meaningful, and a pending pick
+		// needs the loop to keep running until its read back arrives
+		if (boardManager.isDrawDebug() || boardManager.isPickPending() || boardManager.isDynamicResolution())
+			requestRender();
 	}
 
 	public void onRender() {
 		Framebuffer.clearScreen();
+		if (boardManager == null) {
+			renderLoadingBar();
+			return;
+		}
+		boardTimer.begin();
 		boardManager.render();
+		boardTimer.end();
+		boardManager.updateRenderScale(boardTimer.getMilliseconds());
+		if (boardManager.isDrawDebug())
+			renderTimingOverlay();
 		if (overlaid)
 			renderOverlay();
 		else if (boardManager.isPiecePromotable())
 			renderPromotionOverlay();
 		else if (boardManager.isChecked())
 			renderCheckOverlay();
+		else if (explorer != null)
+			renderExplorerOverlay();
 	}
 
 	public void onExit() {
-		writer.getFontAtlas().delete();
-		ChessPiece.destroyModels();
-		boardManager.deleteFramebuffer();
-		BoardManager.delete();
+		boardTimer.delete();
+		if (explorer != null) {
+			try {
+				explorer.close();
+			} catch (IOException ignored) {}
+		}
+		if (book != null) {
+			try {
+				book.close();
+			} catch (IOException ignored) {}
+		}
+		if (writer != null)
+			writer.delete();
+		font.release();
+		ChessPiece.releaseModels();
+		if (boardManager != null) {
+			boardManager.deleteFramebuffer();
+			BoardManager.delete();
+		}
 	}
 
 	public void onResize() {
-		if (getWindowWidth() > 0 && getWindowHeight() > 0) {
+		if (boardManager != null && getWindowWidth() > 0 && getWindowHeight() > 0) {
 			writer.setViewMatrix(getWindowWidth(), getWindowHeight());
 			boardManager.resizeFramebuffer(getWindowWidth(), getWindowHeight());
 		}
@@ -105,6 +197,33 @@ public class ChessGame extends Engine {
 
 	private static final Vector3f FONT_RENDER_COLOR = new Vector3f(0, .5f, 1);
 
+	// Builds what needs the loaded assets once all of them are in, false while still loading. A
+	// failed load rethrows here, as it would have when loading synchronously.
+	private boolean finishLoading() {
+		if (!font.getFuture().isDone() || !modelLoad.isDone())
+			return false;
+		writer = new TextWriter(font.getFuture().join(), getWindowWidth(), getWindowHeight());
+		modelLoad.join();
+		boardManager = new BoardManager(getWindowWidth(), getWindowHeight());
+		requestRender();
+		return true;
+	}
+
+	// Drawn with scissored clears, as the font and shaders may not be loaded yet
+	private void renderLoadingBar() {
+		int width = getWindowWidth() / 2, height = 8;
+		int x = (getWindowWidth() - width) / 2, y = (getWindowHeight() - height) / 2;
+		Framebuffer.fillRect(x, y, width, height, .15f, .15f, .15f);
+		Framebuffer.fillRect(x, y, (int) (width * getAssetLoader().getProgress()), height,
+				FONT_RENDER_COLOR.x(), FONT_RENDER_COLOR.y(), FONT_RENDER_COLOR.z());
+	}
+
+	private void renderTimingOverlay() {
+		writer.writeText(String.format("Board GPU time %.3f ms (%s) at %.0f%% scale, %d redundant GL calls skipped", boardTimer.getMilliseconds(),
+				boardManager.isInstanced() ? "instanced" : boardManager.isShaderNormals() ? "per draw, shader normals" : "per draw", boardManager.getRenderScale() * 100, GLState.getSkippedCalls()),
+				new Vector2f(8, getWindowHeight() - 12), 24, FONT_RENDER_COLOR);
+	}
+
 	private void renderCheckOverlay() {
 		writer.writeText("Check...", new Vector2f(8, 48), 48, FONT_RENDER_COLOR);
 	}
@@ -120,6 +239,27 @@ public class ChessGame extends Engine {
 				""", new Vector2f(8, 48), 48, FONT_RENDER_COLOR);
 	}
 
+	// Stats only change with the selection so the text is rebuilt then rather than every frame
+	private void renderExplorerOverlay() {
+		if (explorerVersion != boardManager.getSelectionVersion()) {
+			explorerVersion = boardManager.getSelectionVersion();
+			StringBuilder text = new StringBuilder();
+			for (var stats : boardManager.getExplorerStats(explorer).values().stream()
+					.sorted(Comparator.comparingInt(ExplorerTable.MoveStats::games).reversed()).toList()) {
+				float games = stats.games();
+				Position.appendSquare(stats.to(), text);
+				text.append(String.format("  %d games  W %.0f%%  D %.0f%%  B %.0f%%", stats.games(),
+						100 * stats.whiteWins() / games, 100 * stats.draws() / games, 100 * stats.blackWins() / games));
+				if (stats.averageRating() > 0)
+					text.append("  avg ").append(stats.averageRating());
+				text.append('\n');
+			}
+			explorerText = text.toString();
+		}
+		if (!explorerText.isEmpty())
+			writer.writeText(explorerText, new Vector2f(8, 32), 32, FONT_RENDER_COLOR);
+	}
+
 	private void renderOverlay() {
 		writer.writeText("""
 				A 3D Chess Game by Jude Ogboru
@@ -127,14 +267,29 @@ public class ChessGame extends Engine {
 				- Left click on a piece to select it.
 				- Left click on the void space to deselect.
 				- Press the [D] key to toggle rendering possible moves.
+				- Press the [I] key to toggle instanced rendering.
+				- Press the [N] key to toggle per vertex normal matrices.
+				- Press the [C] key to toggle CPU picking.
+				- Press the [S] key to toggle dynamic resolution.
+				- Press the [M] key to print resident resources.
 				- Press the [Esc] key to exit the application.
 				- [F5] Quick Save.
 				- [F9] Quick Load.
+				- [H] Play a move from the opening book.
 				
 				Click anywhere to resume...
 				""", new Vector2f(8, 48), 48, FONT_RENDER_COLOR);
 	}
 
+	// Polyglot keys come from the Random64 table bundled with the game
+	private void openBook() {
+		try {
+			book = new OpeningBook(Path.of(Engine.getAbsolutePath("book.bin")), Zobrist.polyglot());
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Could not open the opening book, [H] has no moves to play: " + e.getMessage());
+		}
+	}
+
 	private void quickSave() {
 		try {
 			FileWriter writer = new FileWriter("save.txt");
@@ -148,8 +303,16 @@ public class ChessGame extends Engine {
 	private void quickLoad() {
 		try {
 			String filepath = Engine.getAbsolutePath("save.txt");
-			boardManager.deleteFramebuffer();
+			var previous = boardManager;
 			boardManager = new BoardManager(getWindowWidth(), getWindowHeight(), filepath);
+			previous.deleteFramebuffer();
+			boardManager.setInstanced(previous.isInstanced());
+			boardManager.setShaderNormals(previous.isShaderNormals());
+			boardManager.setCpuPicking(previous.isCpuPicking());
+			boardManager.setDynamicResolution(previous.isDynamicResolution());
+			// The new board's selection version starts over, so it cannot key the old explorer text
+			explorerVersion = -1;
+			explorerText = "";
 		} catch (RuntimeException e) {
 			System.err.println("No save file found!");
 		}
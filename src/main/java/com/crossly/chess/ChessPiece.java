@@ -1,10 +1,14 @@
 package com.crossly.chess;
 
+import com.crossly.engine.ResourceManager;
 import com.crossly.engine.graphics.Model;
 import org.joml.Vector2f;
 import org.joml.Vector2i;
 import org.joml.Vector3f;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
 public class ChessPiece {
 
 	public enum Type {
@@ -15,14 +19,16 @@ public class ChessPiece {
 		QUEEN("meshes/Queen.obj"),
 		KING("meshes/King.obj");
 
-		private final Model model;
+		private final String path;
+		private ResourceManager.Handle<Model> model;
 
 		Type(String path) {
-			model = new Model(path);
+			this.path = path;
 		}
 
+		// Null until loadModels completes
 		public Model getModel() {
-			return model;
+			return model != null ? model.get() : null;
 		}
 	}
 
@@ -143,9 +149,21 @@ public class ChessPiece {
 		lastPosition = new Vector2i();
 	}
 
-	public static void destroyModels() {
+	// Completes on the main thread once every piece model is uploaded
+	public static CompletableFuture<Void> loadModels(ResourceManager resources) {
+		for (var type : Type.values()) {
+			if (type.model == null)
+				type.model = resources.model(type.path);
+		}
+		return CompletableFuture.allOf(Arrays.stream(Type.values()).map(type -> type.model.getFuture()).toArray(CompletableFuture[]::new));
+	}
+
+	public static void releaseModels() {
 		for (var type : Type.values()) {
-			type.getModel().delete();
+			if (type.model != null) {
+				type.model.release();
+				type.model = null;
+			}
 		}
 	}
 
@@ -0,0 +1,86 @@
+package com.crossly.chess.book;
+
+import com.crossly.chess.database.PostingSorter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Open addressing map from (position key, book move) to game and point counts kept in primitive
+// arrays. An empty slot has zero games. Once full it is written out as a sorted run and cleared.
+class MoveCountMap {
+
+	private final long[] keys;
+	private final short[] moves;
+	private final int[] games;
+	private final int[] points;
+	private final int mask;
+	private final int limit;
+	private int size = 0;
+
+	MoveCountMap(int capacityBits) {
+		int capacity = 1 << capacityBits;
+		keys = new long[capacity];
+		moves = new short[capacity];
+		games = new int[capacity];
+		points = new int[capacity];
+		mask = capacity - 1;
+		limit = capacity / 2;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isFull() {
+		return size >= limit;
+	}
+
+	void add(long key, short move, int gamePoints) {
+		int slot = (int) ((key ^ (move * 0x9E3779B97F4A7C15L)) >>> 32) & mask;
+		while (games[slot] != 0 && (keys[slot] != key || moves[slot] != move))
+			slot = (slot + 1) & mask;
+		if (games[slot] == 0) {
+			keys[slot] = key;
+			moves[slot] = move;
+			points[slot] = 0;
+			size++;
+		}
+		games[slot]++;
+		points[slot] += gamePoints;
+	}
+
+	// Writes the entries ordered by unsigned key then move: a count header then key, move, games, points
+	void writeRun(Path run) throws IOException {
+		long[] sortKeys = new long[size];
+		long[] sortValues = new long[size];
+		int count = 0;
+		for (int slot = 0; slot <= mask; slot++) {
+			if (games[slot] != 0) {
+				// Flipping the sign bit makes the signed sort order the unsigned key order
+				sortKeys[count] = keys[slot] ^ Long.MIN_VALUE;
+				sortValues[count++] = ((long) (moves[slot] & 0xFFFF) << 32) | slot;
+			}
+		}
+		PostingSorter.sort(sortKeys, sortValues, count);
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+			out.writeLong(count);
+			for (int i = 0; i < count; i++) {
+				int slot = (int) sortValues[i];
+				out.writeLong(keys[slot]);
+				out.writeShort(moves[slot]);
+				out.writeInt(games[slot]);
+				out.writeInt(points[slot]);
+			}
+		}
+		clear();
+	}
+
+	void clear() {
+		Arrays.fill(games, 0);
+		size = 0;
+	}
+}
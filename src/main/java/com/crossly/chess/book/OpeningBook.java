@@ -0,0 +1,113 @@
+package com.crossly.chess.book;
+
+import com.crossly.chess.database.MappedFile;
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Reader for Polyglot .bin books. The file is a sorted array of 16 byte big endian entries
+// (key u64, move u16, weight u16, learn u32) so a position's moves are found with one binary
+// search over the mapped file.
+public class OpeningBook implements Closeable {
+
+	public record BookMove(int move, int weight) {}
+
+	public static final int ENTRY_BYTES = 16;
+
+	private final MappedFile file;
+	private final Zobrist zobrist;
+	private final long count;
+	private final Position scratch = new Position();
+
+	// The zobrist table has to be Polyglot's Random64 table, see Zobrist.polyglot
+	public OpeningBook(Path path, Zobrist zobrist) throws IOException {
+		file = new MappedFile(path);
+		if (file.size() % ENTRY_BYTES != 0) {
+			file.close();
+			throw new IOException("'" + path + "' is not a Polyglot book");
+		}
+		this.zobrist = zobrist;
+		count = file.size() / ENTRY_BYTES;
+	}
+
+	public long getEntryCount() {
+		return count;
+	}
+
+	public Zobrist getZobrist() {
+		return zobrist;
+	}
+
+	// Legal book moves of the position, entries that do not decode to a legal move are skipped
+	public List<BookMove> lookup(Position position) {
+		List<BookMove> moves = new ArrayList<>();
+		long key = zobrist.hash(position);
+		long low = 0, high = count;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (Long.compareUnsigned(file.getLong(mid * ENTRY_BYTES), key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		for (long i = low; i < count && file.getLong(i * ENTRY_BYTES) == key; i++) {
+			int move = decodeMove(position, file.getShort(i * ENTRY_BYTES + 8));
+			if (move != Move.NONE)
+				moves.add(new BookMove(move, file.getShort(i * ENTRY_BYTES + 10) & 0xFFFF));
+		}
+		return moves;
+	}
+
+	// Picks a move with probability proportional to its weight, Move.NONE when out of book
+	public int pick(Position position, Random random) {
+		var moves = lookup(position);
+		long total = 0;
+		for (var move : moves)
+			total += move.weight();
+		if (total == 0)
+			return Move.NONE;
+		long roll = (long) (random.nextDouble() * total);
+		for (var move : moves) {
+			roll -= move.weight();
+			if (roll < 0)
+				return move.move();
+		}
+		return moves.get(moves.size() - 1).move();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	// Polyglot moves are to file/row in bits 0-5, from file/row in bits 6-11 and the promotion
+	// piece (knight = 1 ... queen = 4) in bits 12-14. Castling is written as the king taking its rook.
+	public static int decodeMove(Position position, short bookMove) {
+		int to = bookMove & 0x3F;
+		int from = (bookMove >> 6) & 0x3F;
+		int promotion = (bookMove >> 12) & 0x7;
+		int piece = position.pieceAt(from);
+		int target = position.pieceAt(to);
+		if (Position.typeOf(piece) == Position.KING && Position.typeOf(target) == Position.ROOK &&
+				Position.isBlack(piece) == Position.isBlack(target))
+			to = Position.square(Position.fileOf(to) > Position.fileOf(from) ? 6 : 2, Position.rankOf(from));
+		return position.findMove(from, to, promotion == 0 ? Position.EMPTY : promotion + 1);
+	}
+
+	// Inverse of decodeMove, castling is turned back into the king taking its rook
+	public static short encodeMove(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		if (Move.isCastle(move))
+			to = Position.square(Position.fileOf(to) > Position.fileOf(from) ? 7 : 0, Position.rankOf(from));
+		int promotion = Move.promotion(move);
+		return (short) (to | (from << 6) | ((promotion == Position.EMPTY ? 0 : promotion - 1) << 12));
+	}
+}
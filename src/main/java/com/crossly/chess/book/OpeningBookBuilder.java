@@ -0,0 +1,305 @@
+package com.crossly.chess.book;
+
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.notation.PgnReader;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Builds a Polyglot book from PGN files. The reading thread hands batches of games to workers
+// that replay them and count (position, move) pairs in their own MoveCountMap. Full maps are
+// spilled as sorted runs so memory stays bounded, and the runs are k-way merged into the book.
+// A move's weight is 2 points per win and 1 per draw for the side that played it, scaled down
+// per position when it would overflow 16 bits.
+//
+// Usage: <output.bin> <pgn>... [--max-ply n] [--min-games n] [--threads n]
+public class OpeningBookBuilder {
+
+	private static final int GAMES_PER_BATCH = 256;
+	private static final List<PgnGame> END_OF_GAMES = List.of();
+
+	private final Zobrist zobrist;
+	private int maxPly = 24;
+	private int minGames = 1;
+	private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private int mapCapacityBits = 21;
+
+	// The zobrist table has to be Polyglot's Random64 table for other programs to read the book
+	public OpeningBookBuilder(Zobrist zobrist) {
+		this.zobrist = zobrist;
+	}
+
+	public void setMaxPly(int maxPly) {
+		this.maxPly = maxPly;
+	}
+
+	public void setMinGames(int minGames) {
+		this.minGames = minGames;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	// Each worker's map holds half of 2^bits entries before spilling
+	public void setMapCapacityBits(int mapCapacityBits) {
+		this.mapCapacityBits = mapCapacityBits;
+	}
+
+	// Returns the number of book entries written
+	public long build(List<Path> pgns, Path output) throws IOException {
+		Path parent = output.toAbsolutePath().getParent();
+		Path runDirectory = Files.createTempDirectory(parent, "book-runs");
+		try {
+			return merge(countMoves(pgns, runDirectory), output);
+		} finally {
+			try (var stream = Files.newDirectoryStream(runDirectory)) {
+				for (var run : stream)
+					Files.deleteIfExists(run);
+			}
+			Files.deleteIfExists(runDirectory);
+		}
+	}
+
+	private List<Path> countMoves(List<Path> pgns, Path runDirectory) throws IOException {
+		BlockingQueue<List<PgnGame>> queue = new ArrayBlockingQueue<>(threads * 4);
+		List<Path> runs = new ArrayList<>();
+		AtomicInteger runNumber = new AtomicInteger();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread worker = new Thread(() -> {
+				MoveCountMap map = new MoveCountMap(mapCapacityBits);
+				Position position = new Position();
+				try {
+					for (var batch = queue.take(); batch != END_OF_GAMES; batch = queue.take()) {
+						// After a failure the batches are still drained so the reader never blocks
+						if (failure.get() != null)
+							continue;
+						try {
+							for (var game : batch)
+								countGame(game, position, map, runDirectory, runs, runNumber);
+						} catch (IOException | RuntimeException e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+					if (failure.get() == null && map.size() > 0)
+						spill(map, runDirectory, runs, runNumber);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (IOException e) {
+					failure.compareAndSet(null, e);
+				}
+			}, "book-worker-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		try {
+			List<PgnGame> batch = new ArrayList<>(GAMES_PER_BATCH);
+			for (var pgn : pgns) {
+				try (PgnReader reader = new PgnReader(pgn)) {
+					for (var game = reader.next(); game != null; game = reader.next()) {
+						if (game.result() == PgnGame.Result.UNKNOWN || game.moves().length == 0)
+							continue;
+						batch.add(game);
+						if (batch.size() == GAMES_PER_BATCH) {
+							queue.put(batch);
+							batch = new ArrayList<>(GAMES_PER_BATCH);
+						}
+					}
+				}
+			}
+			if (!batch.isEmpty())
+				queue.put(batch);
+			for (int i = 0; i < threads; i++)
+				queue.put(END_OF_GAMES);
+			for (var worker : workers)
+				worker.join();
+		} catch (InterruptedException e) {
+			workers.forEach(Thread::interrupt);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Book building was interrupted");
+		} catch (IOException e) {
+			workers.forEach(Thread::interrupt);
+			throw e;
+		}
+		if (failure.get() instanceof IOException e)
+			throw e;
+		if (failure.get() != null)
+			throw new IOException("A book worker failed", failure.get());
+		return runs;
+	}
+
+	private void countGame(PgnGame game, Position position, MoveCountMap map, Path runDirectory, List<Path> runs, AtomicInteger runNumber) throws IOException {
+		PgnGame.Result result = game.result();
+		position.set(game.startPosition());
+		int[] moves = game.moves();
+		for (int ply = 0; ply < moves.length && ply < maxPly; ply++) {
+			boolean white = position.isWhiteToMove();
+			int points = result == PgnGame.Result.DRAW ? 1 :
+					(result == PgnGame.Result.WHITE_WINS) == white ? 2 : 0;
+			if (map.isFull())
+				spill(map, runDirectory, runs, runNumber);
+			map.add(zobrist.hash(position), OpeningBook.encodeMove(moves[ply]), points);
+			position.play(moves[ply]);
+		}
+	}
+
+	private static void spill(MoveCountMap map, Path runDirectory, List<Path> runs, AtomicInteger runNumber) throws IOException {
+		Path run = runDirectory.resolve("moves-" + runNumber.getAndIncrement() + ".run");
+		map.writeRun(run);
+		synchronized (runs) {
+			runs.add(run);
+		}
+	}
+
+	private long merge(List<Path> runs, Path output) throws IOException {
+		List<RunSource> sources = new ArrayList<>();
+		PriorityQueue<RunSource> queue = new PriorityQueue<>();
+		Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+		long written = 0;
+		try {
+			for (var run : runs) {
+				RunSource source = new RunSource(run);
+				sources.add(source);
+				if (source.advance())
+					queue.add(source);
+			}
+			PositionEntries entries = new PositionEntries();
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+				while (!queue.isEmpty()) {
+					RunSource source = queue.poll();
+					if (entries.count > 0 && entries.key != source.key)
+						written += entries.write(out, minGames);
+					entries.add(source.key, source.move, source.games, source.points);
+					if (source.advance())
+						queue.add(source);
+				}
+				written += entries.write(out, minGames);
+			}
+		} finally {
+			for (var source : sources)
+				source.close();
+		}
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+		return written;
+	}
+
+	// Moves of one position gathered from the merge, equal moves from several runs are summed
+	private static class PositionEntries {
+		long key;
+		int count = 0;
+		short[] moves = new short[64];
+		int[] games = new int[64];
+		int[] points = new int[64];
+
+		void add(long key, short move, int games, int points) {
+			this.key = key;
+			if (count > 0 && moves[count - 1] == move) {
+				this.games[count - 1] += games;
+				this.points[count - 1] += points;
+				return;
+			}
+			if (count == moves.length) {
+				moves = Arrays.copyOf(moves, count * 2);
+				this.games = Arrays.copyOf(this.games, count * 2);
+				this.points = Arrays.copyOf(this.points, count * 2);
+			}
+			moves[count] = move;
+			this.games[count] = games;
+			this.points[count++] = points;
+		}
+
+		// Writes the moves by descending weight and clears the position
+		int write(DataOutputStream out, int minGames) throws IOException {
+			int max = 0;
+			for (int i = 0; i < count; i++)
+				max = Math.max(max, points[i]);
+			double scale = max > 0xFFFF ? (double) 0xFFFF / max : 1;
+			long[] order = new long[count];
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				int weight = (int) (points[i] * scale);
+				if (games[i] >= minGames && weight > 0)
+					order[kept++] = ((long) (0xFFFF - weight) << 32) | i;
+			}
+			Arrays.sort(order, 0, kept);
+			for (int i = 0; i < kept; i++) {
+				int entry = (int) order[i];
+				out.writeLong(key);
+				out.writeShort(moves[entry]);
+				out.writeShort(0xFFFF - (int) (order[i] >>> 32));
+				out.writeInt(0);
+			}
+			count = 0;
+			return kept;
+		}
+	}
+
+	private static class RunSource implements Comparable<RunSource>, Closeable {
+		private final DataInputStream in;
+		private long remaining;
+		long key;
+		short move;
+		int games, points;
+
+		RunSource(Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+			remaining = in.readLong();
+		}
+
+		boolean advance() throws IOException {
+			if (remaining-- <= 0)
+				return false;
+			key = in.readLong();
+			move = in.readShort();
+			games = in.readInt();
+			points = in.readInt();
+			return true;
+		}
+
+		@Override
+		public int compareTo(RunSource other) {
+			int result = Long.compareUnsigned(key, other.key);
+			return result != 0 ? result : Integer.compare(move & 0xFFFF, other.move & 0xFFFF);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: <output.bin> <pgn>... [--max-ply n] [--min-games n] [--threads n]");
+			return;
+		}
+		OpeningBookBuilder builder = new OpeningBookBuilder(Zobrist.polyglot());
+		List<Path> pgns = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "--max-ply" -> builder.setMaxPly(Integer.parseInt(args[++i]));
+				case "--min-games" -> builder.setMinGames(Integer.parseInt(args[++i]));
+				case "--threads" -> builder.setThreads(Integer.parseInt(args[++i]));
+				default -> pgns.add(Paths.get(args[i]));
+			}
+		}
+		long start = System.nanoTime();
+		long entries = builder.build(pgns, Paths.get(args[0]));
+		System.out.printf("Wrote %d book entries to '%s' in %.1fs%n", entries, args[0], (System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,309 @@
+package com.crossly.chess.database;
+
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Per (position, move) aggregates precomputed from a GameStore. Records are sorted by zobrist key
+// then move so a position's moves sit next to each other and are found with one binary search.
+// refresh() only aggregates games appended since the last refresh and merges them into a new
+// explorer-<generation>.tbl next to the old one.
+public class ExplorerTable implements Closeable {
+
+	public record MoveStats(short move, int games, int whiteWins, int draws, int blackWins, int averageRating) {
+
+		public int from() {
+			return Move.from(move);
+		}
+
+		public int to() {
+			return Move.to(move);
+		}
+
+		public int promotion() {
+			return Move.promotion(move);
+		}
+	}
+
+	private static final int MAGIC = 0x43455854;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int RECORD_BYTES = 40;
+	private static final int ROWS_PER_BATCH = 1 << 22;
+
+	private final Path directory;
+	private final Zobrist zobrist;
+	private int generation = 0;
+	private int aggregatedGames = 0;
+	private int maxPly = 30;
+	private MappedFile table;
+
+	private ExplorerTable(Path directory, Zobrist zobrist) {
+		this.directory = directory;
+		this.zobrist = zobrist;
+	}
+
+	public static ExplorerTable open(Path directory) throws IOException {
+		return open(directory, Zobrist.DEFAULT);
+	}
+
+	public static ExplorerTable open(Path directory, Zobrist zobrist) throws IOException {
+		Files.createDirectories(directory);
+		ExplorerTable explorer = new ExplorerTable(directory, zobrist);
+		try (var stream = Files.newDirectoryStream(directory, "explorer-*.tbl")) {
+			for (var path : stream)
+				explorer.generation = Math.max(explorer.generation, parseGeneration(path));
+		}
+		explorer.map();
+		explorer.deleteStaleTables();
+		return explorer;
+	}
+
+	public int getAggregatedGames() {
+		return aggregatedGames;
+	}
+
+	public int getMaxPly() {
+		return maxPly;
+	}
+
+	// Only applies to games aggregated after the call
+	public void setMaxPly(int maxPly) {
+		this.maxPly = maxPly;
+	}
+
+	public Zobrist getZobrist() {
+		return zobrist;
+	}
+
+	public long getRecordCount() {
+		return table == null ? 0 : (table.size() - HEADER_BYTES) / RECORD_BYTES;
+	}
+
+	public List<MoveStats> lookup(Position position) {
+		return lookup(zobrist.hash(position));
+	}
+
+	public List<MoveStats> lookup(long key) {
+		List<MoveStats> stats = new ArrayList<>();
+		long count = getRecordCount();
+		long low = 0, high = count;
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (table.getLong(HEADER_BYTES + mid * RECORD_BYTES) < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		for (long i = low; i < count; i++) {
+			long offset = HEADER_BYTES + i * RECORD_BYTES;
+			if (table.getLong(offset) != key)
+				break;
+			int rated = table.getInt(offset + 28);
+			long ratingSum = table.getLong(offset + 32);
+			stats.add(new MoveStats(table.getShort(offset + 8), table.getInt(offset + 12), table.getInt(offset + 16),
+					table.getInt(offset + 20), table.getInt(offset + 24), rated == 0 ? 0 : (int) (ratingSum / rated)));
+		}
+		return stats;
+	}
+
+	// Aggregates the games the store gained since the last refresh, returns how many were added
+	public int refresh(GameStore store) throws IOException {
+		int first = aggregatedGames;
+		int end = store.getGameCount();
+		if (first >= end)
+			return 0;
+		int capacity = (int) Math.min(ROWS_PER_BATCH, (long) (end - first) * maxPly);
+		long[] keys = new long[capacity];
+		long[] values = new long[capacity];
+		int rows = 0;
+		Position position = new Position();
+		for (int id = first; id < end; id++) {
+			var game = store.getGame(id);
+			int result = game.result().ordinal();
+			if (game.result() == PgnGame.Result.UNKNOWN)
+				continue;
+			int[] moves = game.moves();
+			// Batches end on game boundaries so the stored watermark never splits a game
+			if (rows + Math.min(moves.length, maxPly) > capacity) {
+				mergeBatch(keys, values, rows, id);
+				rows = 0;
+			}
+			position.set(Position.startingPosition());
+			for (int ply = 0; ply < moves.length && ply < maxPly; ply++) {
+				int elo = position.isWhiteToMove() ? game.whiteElo() : game.blackElo();
+				keys[rows] = zobrist.hash(position);
+				values[rows++] = ((long) (Move.toShort(moves[ply]) & 0xFFFF) << 20) | ((long) result << 16) | (elo & 0xFFFF);
+				position.play(moves[ply]);
+			}
+		}
+		mergeBatch(keys, values, rows, end);
+		return end - first;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (table != null)
+			table.close();
+		table = null;
+	}
+
+	private Path tablePath(int generation) {
+		return directory.resolve("explorer-" + generation + ".tbl");
+	}
+
+	private void map() throws IOException {
+		table = MappedFile.openIfExists(tablePath(generation));
+		if (table == null)
+			return;
+		if (table.getInt(0) != MAGIC || table.getInt(4) != VERSION)
+			throw new IOException("'" + tablePath(generation) + "' is not an explorer table of version " + VERSION);
+		aggregatedGames = table.getInt(16);
+		maxPly = table.getInt(20);
+	}
+
+	// Sorts a batch of (key, move|result|elo) rows, folds equal (key, move) rows together and
+	// merges the result with the current table into the next generation
+	private void mergeBatch(long[] keys, long[] values, int rows, int aggregatedUpTo) throws IOException {
+		PostingSorter.sort(keys, values, rows);
+		Path temp = directory.resolve("explorer.tmp");
+		long count = 0;
+		long oldCount = getRecordCount();
+		long oldIndex = 0;
+		int row = 0;
+		Record fresh = new Record(), old = new Record();
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(0L);
+			out.writeInt(aggregatedUpTo);
+			out.writeInt(maxPly);
+			out.writeLong(0L);
+			boolean hasFresh = rows > 0;
+			if (hasFresh)
+				row = fresh.fold(keys, values, row, rows);
+			boolean hasOld = oldIndex < oldCount && old.read(table, oldIndex++);
+			while (hasFresh || hasOld) {
+				int order = !hasOld ? -1 : !hasFresh ? 1 : fresh.compareTo(old);
+				if (order == 0) {
+					fresh.add(old);
+					fresh.write(out);
+				} else
+					(order < 0 ? fresh : old).write(out);
+				count++;
+				if (order <= 0)
+					hasFresh = row < rows && (row = fresh.fold(keys, values, row, rows)) > 0;
+				if (order >= 0)
+					hasOld = oldIndex < oldCount && old.read(table, oldIndex++);
+			}
+		}
+		try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(8).putLong(count).flip(), 8);
+		}
+		close();
+		Files.move(temp, tablePath(generation + 1), StandardCopyOption.ATOMIC_MOVE);
+		generation++;
+		map();
+		deleteStaleTables();
+	}
+
+	private void deleteStaleTables() {
+		try (var stream = Files.newDirectoryStream(directory, "explorer-*.tbl")) {
+			for (var path : stream) {
+				int pathGeneration = parseGeneration(path);
+				if (pathGeneration >= 0 && pathGeneration != generation) {
+					try {
+						Files.deleteIfExists(path);
+					} catch (IOException ignored) {}
+				}
+			}
+		} catch (IOException ignored) {}
+	}
+
+	// -1 for files that only look like tables, so one stray name cannot hide or delete the real ones
+	private static int parseGeneration(Path path) {
+		String name = path.getFileName().toString();
+		try {
+			return Integer.parseInt(name.substring(9, name.length() - 4));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static class Record {
+		long key;
+		short move;
+		int games, whiteWins, draws, blackWins, rated;
+		long ratingSum;
+
+		// Folds rows sharing the first row's (key, move) and returns the index of the next row
+		int fold(long[] keys, long[] values, int row, int rows) {
+			key = keys[row];
+			move = (short) (values[row] >>> 20);
+			games = whiteWins = draws = blackWins = rated = 0;
+			ratingSum = 0;
+			while (row < rows && keys[row] == key && (short) (values[row] >>> 20) == move) {
+				long value = values[row++];
+				games++;
+				switch (PgnGame.Result.values()[(int) (value >>> 16) & 0xF]) {
+					case WHITE_WINS -> whiteWins++;
+					case DRAW -> draws++;
+					case BLACK_WINS -> blackWins++;
+				}
+				int elo = (int) (value & 0xFFFF);
+				if (elo > 0) {
+					rated++;
+					ratingSum += elo;
+				}
+			}
+			return row;
+		}
+
+		boolean read(MappedFile table, long index) {
+			long offset = HEADER_BYTES + index * RECORD_BYTES;
+			key = table.getLong(offset);
+			move = table.getShort(offset + 8);
+			games = table.getInt(offset + 12);
+			whiteWins = table.getInt(offset + 16);
+			draws = table.getInt(offset + 20);
+			blackWins = table.getInt(offset + 24);
+			rated = table.getInt(offset + 28);
+			ratingSum = table.getLong(offset + 32);
+			return true;
+		}
+
+		void add(Record other) {
+			games += other.games;
+			whiteWins += other.whiteWins;
+			draws += other.draws;
+			blackWins += other.blackWins;
+			rated += other.rated;
+			ratingSum += other.ratingSum;
+		}
+
+		int compareTo(Record other) {
+			int result = Long.compare(key, other.key);
+			return result != 0 ? result : Integer.compare(move & 0xFFFF, other.move & 0xFFFF);
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(key);
+			out.writeShort(move);
+			out.writeShort(0);
+			out.writeInt(games);
+			out.writeInt(whiteWins);
+			out.writeInt(draws);
+			out.writeInt(blackWins);
+			out.writeInt(rated);
+			out.writeLong(ratingSum);
+		}
+	}
+}
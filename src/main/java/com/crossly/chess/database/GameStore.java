@@ -0,0 +1,454 @@
+package com.crossly.chess.database;
+
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Games are stored column by column (result, elos, ply offsets, 16 bit moves) so a lookup only
+// touches the columns it needs. position-<generation>.idx holds (zobrist key, game, ply) postings
+// sorted by key and is rewritten by merging whenever games are appended.
+public class GameStore implements Closeable {
+
+	public record Posting(int game, int ply) {}
+
+	public record StoredGame(int id, PgnGame.Result result, int whiteElo, int blackElo, int[] moves) {}
+
+	private static final int MAGIC = 0x43474442;
+	private static final int VERSION = 1;
+	private static final int INDEX_HEADER_BYTES = 16;
+	private static final int POSTING_BYTES = 16;
+	private static final int POSTINGS_PER_RUN = 1 << 22;
+
+	private static final String META = "store.meta";
+	private static final String RESULTS = "result.col";
+	private static final String WHITE_ELOS = "white-elo.col";
+	private static final String BLACK_ELOS = "black-elo.col";
+	private static final String PLY_OFFSETS = "ply-offset.col";
+	private static final String MOVES = "moves.col";
+
+	private final Path directory;
+	private final Zobrist zobrist;
+	private int gameCount = 0;
+	private long plyCount = 0;
+	private int indexGeneration = 0;
+	private int maxIndexedPly = Integer.MAX_VALUE;
+	private MappedFile results, whiteElos, blackElos, plyOffsets, moves, index;
+
+	private GameStore(Path directory, Zobrist zobrist) {
+		this.directory = directory;
+		this.zobrist = zobrist;
+	}
+
+	public static GameStore open(Path directory) throws IOException {
+		return open(directory, Zobrist.DEFAULT);
+	}
+
+	public static GameStore open(Path directory, Zobrist zobrist) throws IOException {
+		Files.createDirectories(directory);
+		GameStore store = new GameStore(directory, zobrist);
+		store.readMeta();
+		store.repairColumns();
+		store.deleteStaleIndexes();
+		store.mapFiles();
+		return store;
+	}
+
+	public int getGameCount() {
+		return gameCount;
+	}
+
+	public long getPlyCount() {
+		return plyCount;
+	}
+
+	public Zobrist getZobrist() {
+		return zobrist;
+	}
+
+	public int getMaxIndexedPly() {
+		return maxIndexedPly;
+	}
+
+	// Limits index growth for opening explorer use, positions past this ply are not searchable
+	public void setMaxIndexedPly(int maxIndexedPly) {
+		this.maxIndexedPly = maxIndexedPly;
+	}
+
+	public int append(Iterable<PgnGame> games) throws IOException {
+		int firstGame = gameCount;
+		long firstPly = plyCount;
+		int generation = indexGeneration;
+		List<Path> runs = new ArrayList<>();
+		try {
+			writeGames(games, runs);
+			closeMaps();
+			mergeIndex(runs);
+			writeMeta();
+		} catch (IOException | RuntimeException e) {
+			// Back to the last committed meta, anything written past it is truncated on the next open
+			gameCount = firstGame;
+			plyCount = firstPly;
+			indexGeneration = generation;
+			try {
+				closeMaps();
+				mapFiles();
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		} finally {
+			for (var run : runs)
+				Files.deleteIfExists(run);
+		}
+		deleteStaleIndexes();
+		mapFiles();
+		return gameCount - firstGame;
+	}
+
+	// Writes the games' columns and sorted posting runs, advancing the counts as it goes
+	private void writeGames(Iterable<PgnGame> games, List<Path> runs) throws IOException {
+		long[] keys = new long[1024];
+		long[] values = new long[1024];
+		int postingCount = 0;
+		try (var resultOut = openColumn(RESULTS, gameCount);
+			 var whiteOut = openColumn(WHITE_ELOS, gameCount * 2L);
+			 var blackOut = openColumn(BLACK_ELOS, gameCount * 2L);
+			 var offsetOut = openColumn(PLY_OFFSETS, gameCount * 8L);
+			 var moveOut = openColumn(MOVES, plyCount * 2)) {
+			Position position = new Position();
+			for (var game : games) {
+				if (!game.hasStandardStart())
+					continue;
+				int id = gameCount++;
+				resultOut.writeByte(game.result().ordinal());
+				whiteOut.writeShort(Math.min(game.whiteElo(), Short.MAX_VALUE));
+				blackOut.writeShort(Math.min(game.blackElo(), Short.MAX_VALUE));
+				offsetOut.writeLong(plyCount);
+				position.set(game.startPosition());
+				int[] gameMoves = game.moves();
+				for (int ply = 0; ply <= gameMoves.length; ply++) {
+					if (ply <= maxIndexedPly) {
+						if (postingCount == keys.length) {
+							if (postingCount >= POSTINGS_PER_RUN) {
+								runs.add(writeRun(keys, values, postingCount));
+								postingCount = 0;
+							} else {
+								keys = Arrays.copyOf(keys, postingCount * 2);
+								values = Arrays.copyOf(values, postingCount * 2);
+							}
+						}
+						keys[postingCount] = zobrist.hash(position);
+						values[postingCount++] = ((long) id << 32) | ply;
+					}
+					if (ply < gameMoves.length) {
+						moveOut.writeShort(Move.toShort(gameMoves[ply]));
+						position.play(gameMoves[ply]);
+					}
+				}
+				plyCount += gameMoves.length;
+			}
+		}
+		if (postingCount > 0)
+			runs.add(writeRun(keys, values, postingCount));
+	}
+
+	public List<Posting> find(Position position, int limit) {
+		return find(zobrist.hash(position), limit);
+	}
+
+	public List<Posting> find(long key, int limit) {
+		List<Posting> postings = new ArrayList<>();
+		if (index == null)
+			return postings;
+		long count = getIndexSize();
+		for (long i = lowerBound(key); i < count && postings.size() < limit; i++) {
+			long offset = INDEX_HEADER_BYTES + i * POSTING_BYTES;
+			if (index.getLong(offset) != key)
+				break;
+			postings.add(new Posting(index.getInt(offset + 8), index.getInt(offset + 12)));
+		}
+		return postings;
+	}
+
+	public long count(long key) {
+		if (index == null)
+			return 0;
+		long count = getIndexSize();
+		long i = lowerBound(key);
+		long start = i;
+		while (i < count && index.getLong(INDEX_HEADER_BYTES + i * POSTING_BYTES) == key)
+			i++;
+		return i - start;
+	}
+
+	public StoredGame getGame(int id) {
+		if (id < 0 || id >= gameCount)
+			throw new IndexOutOfBoundsException("Game " + id + " is not in the store");
+		long start = plyOffsets.getLong(id * 8L);
+		long end = id + 1 < gameCount ? plyOffsets.getLong((id + 1) * 8L) : plyCount;
+		int[] gameMoves = new int[(int) (end - start)];
+		Position position = Position.startingPosition();
+		for (int ply = 0; ply < gameMoves.length; ply++) {
+			int packed = moves.getShort((start + ply) * 2);
+			int move = position.findMove(Move.from(packed), Move.to(packed), Move.promotion(packed));
+			if (move == Move.NONE)
+				throw new IllegalStateException("Corrupt move " + packed + " in game " + id + " at ply " + ply);
+			gameMoves[ply] = move;
+			position.play(move);
+		}
+		return new StoredGame(id, getResult(id), whiteElos.getShort(id * 2L), blackElos.getShort(id * 2L), gameMoves);
+	}
+
+	public PgnGame.Result getResult(int id) {
+		return PgnGame.Result.values()[results.get(id)];
+	}
+
+	public int getWhiteElo(int id) {
+		return whiteElos.getShort(id * 2L);
+	}
+
+	public int getBlackElo(int id) {
+		return blackElos.getShort(id * 2L);
+	}
+
+	// Replays a stored game up to ply, used to continue browsing from a search hit
+	public Position getPosition(int id, int ply) {
+		int[] gameMoves = getGame(id).moves();
+		Position position = Position.startingPosition();
+		for (int i = 0; i < ply && i < gameMoves.length; i++)
+			position.play(gameMoves[i]);
+		return position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closeMaps();
+	}
+
+	private long getIndexSize() {
+		return (index.size() - INDEX_HEADER_BYTES) / POSTING_BYTES;
+	}
+
+	private long lowerBound(long key) {
+		long low = 0, high = getIndexSize();
+		while (low < high) {
+			long mid = (low + high) >>> 1;
+			if (index.getLong(INDEX_HEADER_BYTES + mid * POSTING_BYTES) < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private Path indexPath(int generation) {
+		return directory.resolve("position-" + generation + ".idx");
+	}
+
+	private DataOutputStream openColumn(String name, long expectedSize) throws IOException {
+		FileChannel channel = FileChannel.open(directory.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.position(expectedSize);
+		return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+	}
+
+	private Path writeRun(long[] keys, long[] values, int count) throws IOException {
+		PostingSorter.sort(keys, values, count);
+		Path run = Files.createTempFile(directory, "postings", ".run");
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+			for (int i = 0; i < count; i++) {
+				out.writeLong(keys[i]);
+				out.writeLong(values[i]);
+			}
+		}
+		return run;
+	}
+
+	private void mergeIndex(List<Path> runs) throws IOException {
+		MappedFile previous = MappedFile.openIfExists(indexPath(indexGeneration));
+		List<PostingSource> sources = new ArrayList<>();
+		PriorityQueue<PostingSource> queue = new PriorityQueue<>();
+		try {
+			if (previous != null)
+				sources.add(new MappedSource(previous));
+			for (var run : runs)
+				sources.add(new RunSource(run));
+			for (var source : sources) {
+				if (!source.advance().isExhausted())
+					queue.add(source);
+			}
+			Path target = indexPath(indexGeneration + 1);
+			long count = 0;
+			try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(0L);
+				while (!queue.isEmpty()) {
+					PostingSource source = queue.poll();
+					out.writeLong(source.key);
+					out.writeLong(source.value);
+					count++;
+					if (!source.advance().isExhausted())
+						queue.add(source);
+				}
+			}
+			try (var channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+				var header = ByteBuffer.allocate(8).putLong(count).flip();
+				channel.write(header, 8);
+			}
+			indexGeneration++;
+		} finally {
+			for (var source : sources)
+				source.close();
+			if (previous != null)
+				previous.close();
+		}
+	}
+
+	private void readMeta() throws IOException {
+		Path meta = directory.resolve(META);
+		if (!Files.isRegularFile(meta))
+			return;
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(meta)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("'" + meta + "' is not a game store of version " + VERSION);
+			gameCount = in.readInt();
+			plyCount = in.readLong();
+			indexGeneration = in.readInt();
+		}
+	}
+
+	private void writeMeta() throws IOException {
+		Path temp = directory.resolve(META + ".tmp");
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(gameCount);
+			out.writeLong(plyCount);
+			out.writeInt(indexGeneration);
+		}
+		Files.move(temp, directory.resolve(META), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Drops anything written after the last committed meta, e.g. by an import that crashed
+	private void repairColumns() throws IOException {
+		truncate(RESULTS, gameCount);
+		truncate(WHITE_ELOS, gameCount * 2L);
+		truncate(BLACK_ELOS, gameCount * 2L);
+		truncate(PLY_OFFSETS, gameCount * 8L);
+		truncate(MOVES, plyCount * 2);
+	}
+
+	private void truncate(String name, long size) throws IOException {
+		Path path = directory.resolve(name);
+		if (Files.isRegularFile(path) && Files.size(path) > size) {
+			try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.truncate(size);
+			}
+		}
+	}
+
+	// Old generations stay mapped until collected on some platforms, so deleting them is best effort
+	private void deleteStaleIndexes() {
+		try (var stream = Files.newDirectoryStream(directory, "position-*.idx")) {
+			for (var path : stream) {
+				if (!path.equals(indexPath(indexGeneration))) {
+					try {
+						Files.deleteIfExists(path);
+					} catch (IOException ignored) {}
+				}
+			}
+		} catch (IOException ignored) {}
+	}
+
+	private void mapFiles() throws IOException {
+		results = MappedFile.openIfExists(directory.resolve(RESULTS));
+		whiteElos = MappedFile.openIfExists(directory.resolve(WHITE_ELOS));
+		blackElos = MappedFile.openIfExists(directory.resolve(BLACK_ELOS));
+		plyOffsets = MappedFile.openIfExists(directory.resolve(PLY_OFFSETS));
+		moves = MappedFile.openIfExists(directory.resolve(MOVES));
+		index = MappedFile.openIfExists(indexPath(indexGeneration));
+	}
+
+	private void closeMaps() throws IOException {
+		for (var file : new MappedFile[] { results, whiteElos, blackElos, plyOffsets, moves, index }) {
+			if (file != null)
+				file.close();
+		}
+		results = whiteElos = blackElos = plyOffsets = moves = index = null;
+	}
+
+	private static abstract class PostingSource implements Comparable<PostingSource>, Closeable {
+		long key, value;
+		boolean exhausted = false;
+
+		abstract PostingSource advance() throws IOException;
+
+		boolean isExhausted() {
+			return exhausted;
+		}
+
+		@Override
+		public int compareTo(PostingSource other) {
+			return PostingSorter.compare(key, value, other.key, other.value);
+		}
+	}
+
+	private static class MappedSource extends PostingSource {
+		private final MappedFile file;
+		private long offset = INDEX_HEADER_BYTES;
+
+		MappedSource(MappedFile file) {
+			this.file = file;
+		}
+
+		@Override
+		PostingSource advance() {
+			if (offset + POSTING_BYTES > file.size()) {
+				exhausted = true;
+				return this;
+			}
+			key = file.getLong(offset);
+			value = ((long) file.getInt(offset + 8) << 32) | (file.getInt(offset + 12) & 0xFFFFFFFFL);
+			offset += POSTING_BYTES;
+			return this;
+		}
+
+		@Override
+		public void close() {}
+	}
+
+	private static class RunSource extends PostingSource {
+		private final DataInputStream in;
+
+		RunSource(Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+		}
+
+		@Override
+		PostingSource advance() throws IOException {
+			try {
+				key = in.readLong();
+				value = in.readLong();
+			} catch (EOFException e) {
+				exhausted = true;
+			}
+			return this;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
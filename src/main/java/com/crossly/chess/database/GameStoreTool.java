@@ -0,0 +1,88 @@
+package com.crossly.chess.database;
+
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.notation.PgnReader;
+import com.crossly.chess.rules.Position;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Usage:
+//   import <store directory> <pgn file>...
+//   find <store directory> <fen>
+//   explore <store directory> <explorer directory>
+public class GameStoreTool {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: import <store> <pgn>... | find <store> <fen> | explore <store> <explorer>");
+			return;
+		}
+		try (GameStore store = GameStore.open(Paths.get(args[1]))) {
+			switch (args[0]) {
+				case "import" -> {
+					for (int i = 2; i < args.length; i++) {
+						long start = System.nanoTime();
+						int imported;
+						try (PgnReader reader = new PgnReader(Paths.get(args[i]))) {
+							imported = store.append(() -> games(reader));
+						}
+						System.out.printf("Imported %d games from '%s' in %.1fs%n", imported, args[i], (System.nanoTime() - start) / 1e9);
+					}
+				}
+				case "find" -> {
+					StringBuilder fen = new StringBuilder(args[2]);
+					for (int i = 3; i < args.length; i++)
+						fen.append(' ').append(args[i]);
+					long key = store.getZobrist().hash(Position.fromFen(fen.toString()));
+					long start = System.nanoTime();
+					var postings = store.find(key, 20);
+					long count = store.count(key);
+					System.out.printf("%d games reach the position (%.2fms)%n", count, (System.nanoTime() - start) / 1e6);
+					for (var posting : postings) {
+						System.out.println("Game " + posting.game() + " ply " + posting.ply() + " " + store.getResult(posting.game()).getText());
+					}
+				}
+				case "explore" -> {
+					try (ExplorerTable explorer = ExplorerTable.open(Paths.get(args[2]), store.getZobrist())) {
+						long start = System.nanoTime();
+						int added = explorer.refresh(store);
+						System.out.printf("Aggregated %d new games into %d records in %.1fs%n", added, explorer.getRecordCount(), (System.nanoTime() - start) / 1e9);
+					}
+				}
+				default -> System.err.println("Unknown command '" + args[0] + "'");
+			}
+		}
+	}
+
+	static Iterator<PgnGame> games(PgnReader reader) {
+		return new Iterator<>() {
+			private PgnGame next = read();
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public PgnGame next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				PgnGame game = next;
+				next = read();
+				return game;
+			}
+
+			private PgnGame read() {
+				try {
+					return reader.next();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,65 @@
+package com.crossly.chess.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Read only mapping of a whole file. A single MappedByteBuffer tops out at 2 GB, so the file is
+// mapped in 1 GB segments that overlap by MAX_RECORD_BYTES, letting any record up to that size be
+// read from the segment it starts in.
+public class MappedFile implements Closeable {
+
+	private static final int MAX_RECORD_BYTES = 64;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final long size;
+
+	public MappedFile(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		size = channel.size();
+		int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+		segments = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long offset = (long) i << SEGMENT_SHIFT;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE + MAX_RECORD_BYTES, size - offset));
+			segments[i].order(ByteOrder.BIG_ENDIAN);
+		}
+	}
+
+	public static MappedFile openIfExists(Path path) throws IOException {
+		return Files.isRegularFile(path) && Files.size(path) > 0 ? new MappedFile(path) : null;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public long getLong(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & (SEGMENT_SIZE - 1)));
+	}
+
+	public int getInt(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) (offset & (SEGMENT_SIZE - 1)));
+	}
+
+	public short getShort(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].getShort((int) (offset & (SEGMENT_SIZE - 1)));
+	}
+
+	public byte get(long offset) {
+		return segments[(int) (offset >>> SEGMENT_SHIFT)].get((int) (offset & (SEGMENT_SIZE - 1)));
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,51 @@
+package com.crossly.chess.database;
+
+// Sorts parallel key/value arrays by key then value without boxing them into objects
+public final class PostingSorter {
+
+	private PostingSorter() {}
+
+	public static void sort(long[] keys, long[] values, int count) {
+		quickSort(keys, values, 0, count - 1);
+	}
+
+	public static int compare(long keyA, long valueA, long keyB, long valueB) {
+		int result = Long.compare(keyA, keyB);
+		return result != 0 ? result : Long.compare(valueA, valueB);
+	}
+
+	private static void quickSort(long[] keys, long[] values, int low, int high) {
+		while (high - low > 16) {
+			int mid = (low + high) >>> 1;
+			long pivotKey = keys[mid], pivotValue = values[mid];
+			int i = low, j = high;
+			while (i <= j) {
+				while (compare(keys[i], values[i], pivotKey, pivotValue) < 0) i++;
+				while (compare(keys[j], values[j], pivotKey, pivotValue) > 0) j--;
+				if (i <= j)
+					swap(keys, values, i++, j--);
+			}
+			// Recurse into the smaller half to keep the stack shallow
+			if (j - low < high - i) {
+				quickSort(keys, values, low, j);
+				low = i;
+			} else {
+				quickSort(keys, values, i, high);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low && compare(keys[j - 1], values[j - 1], keys[j], values[j]) > 0; j--)
+				swap(keys, values, j, j - 1);
+		}
+	}
+
+	private static void swap(long[] keys, long[] values, int a, int b) {
+		long key = keys[a];
+		keys[a] = keys[b];
+		keys[b] = key;
+		long value = values[a];
+		values[a] = values[b];
+		values[b] = value;
+	}
+}
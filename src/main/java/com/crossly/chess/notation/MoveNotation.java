@@ -0,0 +1,162 @@
+package com.crossly.chess.notation;
+
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.MoveList;
+import com.crossly.chess.rules.Position;
+
+// Writes SAN/LAN straight into a caller owned StringBuilder, the scratch position is reused
+// between calls so producing notation for a whole move list does not allocate per move.
+public class MoveNotation {
+
+	private final Position after = new Position();
+	private final MoveList legalMoves = new MoveList();
+
+	public String toSan(Position position, int move) {
+		position.generateLegalMoves(legalMoves);
+		return appendSan(position, move, legalMoves, new StringBuilder(8)).toString();
+	}
+
+	public String toLan(Position position, int move) {
+		return appendLan(position, move, new StringBuilder(10)).toString();
+	}
+
+	// legalMoves must be the legal move list of position, it is only read for disambiguation
+	public StringBuilder appendSan(Position position, int move, MoveList legalMoves, StringBuilder out) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int type = Move.pieceType(move);
+		if (Move.isCastle(move)) {
+			out.append(Position.fileOf(to) == 6 ? "O-O" : "O-O-O");
+		} else if (type == Position.PAWN) {
+			if (Move.isCapture(move))
+				out.append((char) ('a' + Position.fileOf(from))).append('x');
+			Position.appendSquare(to, out);
+			if (Move.promotion(move) != Position.EMPTY)
+				out.append('=').append(Position.letterOf(Move.promotion(move)));
+		} else {
+			out.append(Position.letterOf(type));
+			appendDisambiguation(move, legalMoves, out);
+			if (Move.isCapture(move))
+				out.append('x');
+			Position.appendSquare(to, out);
+		}
+		return appendCheck(position, move, out);
+	}
+
+	public StringBuilder appendLan(Position position, int move, StringBuilder out) {
+		int type = Move.pieceType(move);
+		if (Move.isCastle(move)) {
+			out.append(Position.fileOf(Move.to(move)) == 6 ? "O-O" : "O-O-O");
+		} else {
+			if (type != Position.PAWN)
+				out.append(Position.letterOf(type));
+			Position.appendSquare(Move.from(move), out);
+			out.append(Move.isCapture(move) ? 'x' : '-');
+			Position.appendSquare(Move.to(move), out);
+			if (Move.promotion(move) != Position.EMPTY)
+				out.append('=').append(Position.letterOf(Move.promotion(move)));
+		}
+		return appendCheck(position, move, out);
+	}
+
+	// Returns Move.NONE when the text is not a legal move in position
+	public int parseSan(Position position, CharSequence san) {
+		int end = san.length();
+		while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0)
+			end--;
+		if (end < 2)
+			return Move.NONE;
+		position.generateLegalMoves(legalMoves);
+		if (san.charAt(0) == 'O' || san.charAt(0) == '0') {
+			int targetFile = end >= 5 ? 2 : 6;
+			for (int i = 0; i < legalMoves.size(); i++) {
+				int move = legalMoves.get(i);
+				if (Move.isCastle(move) && Position.fileOf(Move.to(move)) == targetFile)
+					return move;
+			}
+			return Move.NONE;
+		}
+		int promotion = Position.EMPTY;
+		if (end > 2 && san.charAt(end - 2) == '=') {
+			promotion = Position.typeOfLetter(san.charAt(end - 1));
+			end -= 2;
+		} else if (end > 2 && Character.isUpperCase(san.charAt(end - 1))) {
+			promotion = Position.typeOfLetter(san.charAt(end - 1));
+			end -= 1;
+		}
+		if (end < 2)
+			return Move.NONE;
+		int toFile = san.charAt(end - 2) - 'a';
+		int toRank = san.charAt(end - 1) - '1';
+		if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7)
+			return Move.NONE;
+		int to = Position.square(toFile, toRank);
+		int start = 0;
+		int type = Position.PAWN;
+		if (Character.isUpperCase(san.charAt(0))) {
+			type = Position.typeOfLetter(san.charAt(0));
+			start = 1;
+		}
+		int fromFile = -1, fromRank = -1;
+		for (int i = start; i < end - 2; i++) {
+			char ch = san.charAt(i);
+			if (ch >= 'a' && ch <= 'h')
+				fromFile = ch - 'a';
+			else if (ch >= '1' && ch <= '8')
+				fromRank = ch - '1';
+		}
+		for (int i = 0; i < legalMoves.size(); i++) {
+			int move = legalMoves.get(i);
+			int from = Move.from(move);
+			if (Move.to(move) != to || Move.pieceType(move) != type || Move.promotion(move) != promotion || Move.isCastle(move))
+				continue;
+			if ((fromFile < 0 || Position.fileOf(from) == fromFile) && (fromRank < 0 || Position.rankOf(from) == fromRank))
+				return move;
+		}
+		return Move.NONE;
+	}
+
+	// Coordinate form (e2e4, e7e8q) used for logging moves the rules module does not recognise
+	public static StringBuilder appendCoordinates(int from, int to, int promotion, StringBuilder out) {
+		Position.appendSquare(from, out);
+		Position.appendSquare(to, out);
+		if (promotion != Position.EMPTY)
+			out.append(Character.toLowerCase(Position.letterOf(promotion)));
+		return out;
+	}
+
+	private static void appendDisambiguation(int move, MoveList legalMoves, StringBuilder out) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int type = Move.pieceType(move);
+		if (type == Position.KING)
+			return;
+		boolean ambiguous = false, sameFile = false, sameRank = false;
+		for (int i = 0; i < legalMoves.size(); i++) {
+			int other = legalMoves.get(i);
+			int otherFrom = Move.from(other);
+			if (otherFrom == from || Move.to(other) != to || Move.pieceType(other) != type)
+				continue;
+			ambiguous = true;
+			sameFile |= Position.fileOf(otherFrom) == Position.fileOf(from);
+			sameRank |= Position.rankOf(otherFrom) == Position.rankOf(from);
+		}
+		if (!ambiguous)
+			return;
+		if (!sameFile) {
+			out.append((char) ('a' + Position.fileOf(from)));
+		} else if (!sameRank) {
+			out.append((char) ('1' + Position.rankOf(from)));
+		} else {
+			Position.appendSquare(from, out);
+		}
+	}
+
+	private StringBuilder appendCheck(Position position, int move, StringBuilder out) {
+		after.set(position);
+		after.play(move);
+		if (after.isInCheck())
+			out.append(after.hasLegalMove() ? '+' : '#');
+		return out;
+	}
+}
@@ -0,0 +1,66 @@
+package com.crossly.chess.notation;
+
+import com.crossly.chess.rules.Position;
+
+import java.util.Map;
+
+public record PgnGame(Map<String, String> tags, int[] moves) {
+
+	public enum Result {
+		UNKNOWN("*"),
+		WHITE_WINS("1-0"),
+		DRAW("1/2-1/2"),
+		BLACK_WINS("0-1");
+
+		private final String text;
+
+		Result(String text) {
+			this.text = text;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public static Result parse(String text) {
+			if (text != null) {
+				for (var result : values()) {
+					if (result.text.equals(text.trim()))
+						return result;
+				}
+			}
+			return UNKNOWN;
+		}
+	}
+
+	public Result result() {
+		return Result.parse(tags.get("Result"));
+	}
+
+	public int whiteElo() {
+		return parseElo(tags.get("WhiteElo"));
+	}
+
+	public int blackElo() {
+		return parseElo(tags.get("BlackElo"));
+	}
+
+	public boolean hasStandardStart() {
+		String fen = tags.get("FEN");
+		return fen == null || fen.trim().equals(Position.STARTING_FEN);
+	}
+
+	public Position startPosition() {
+		return hasStandardStart() ? Position.startingPosition() : Position.fromFen(tags.get("FEN"));
+	}
+
+	private static int parseElo(String text) {
+		if (text == null)
+			return 0;
+		try {
+			return Integer.parseInt(text.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+}
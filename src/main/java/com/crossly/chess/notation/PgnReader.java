@@ -0,0 +1,166 @@
+package com.crossly.chess.notation;
+
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.Position;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Streams games out of a PGN file. Comments, variations and NAGs are skipped and a game
+// keeps the moves up to the first one that could not be parsed.
+public class PgnReader implements Closeable {
+
+	private final Reader reader;
+	private final MoveNotation notation = new MoveNotation();
+	private final StringBuilder token = new StringBuilder(16);
+	private int peeked = -2;
+
+	public PgnReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader, 1 << 16);
+	}
+
+	public PgnReader(Path path) throws IOException {
+		this(Files.newBufferedReader(path, StandardCharsets.ISO_8859_1));
+	}
+
+	public PgnGame next() throws IOException {
+		Map<String, String> tags = new LinkedHashMap<>();
+		int[] moves = new int[128];
+		int count = 0;
+		Position position = null;
+		boolean failed = false, movetext = false;
+		int ch;
+		while ((ch = read()) >= 0) {
+			if (Character.isWhitespace(ch))
+				continue;
+			switch (ch) {
+				case '[' -> {
+					if (movetext) {
+						unread(ch);
+						return new PgnGame(tags, Arrays.copyOf(moves, count));
+					}
+					readTag(tags);
+				}
+				case '{' -> skipUntil('}');
+				case ';', '%' -> skipUntil('\n');
+				case '(' -> skipVariation();
+				case '$' -> readToken(ch);
+				default -> {
+					movetext = true;
+					readToken(ch);
+					if (isResult(token))
+						return new PgnGame(tags, Arrays.copyOf(moves, count));
+					int start = 0;
+					while (start < token.length() && (Character.isDigit(token.charAt(start)) || token.charAt(start) == '.'))
+						start++;
+					if (start == token.length() || failed)
+						continue;
+					if (position == null)
+						position = startPosition(tags);
+					int move = position == null ? Move.NONE : notation.parseSan(position, token.subSequence(start, token.length()));
+					if (move == Move.NONE) {
+						failed = true;
+						continue;
+					}
+					if (count == moves.length)
+						moves = Arrays.copyOf(moves, count * 2);
+					moves[count++] = move;
+					position.play(move);
+				}
+			}
+		}
+		if (tags.isEmpty() && count == 0)
+			return null;
+		return new PgnGame(tags, Arrays.copyOf(moves, count));
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private static Position startPosition(Map<String, String> tags) {
+		String fen = tags.get("FEN");
+		if (fen == null)
+			return Position.startingPosition();
+		try {
+			return Position.fromFen(fen);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isResult(CharSequence text) {
+		String value = text.toString();
+		return value.equals("1-0") || value.equals("0-1") || value.equals("1/2-1/2") || value.equals("*");
+	}
+
+	private void readTag(Map<String, String> tags) throws IOException {
+		StringBuilder name = new StringBuilder();
+		StringBuilder value = new StringBuilder();
+		int ch;
+		while ((ch = read()) >= 0 && ch != '"' && ch != ']') {
+			if (!Character.isWhitespace(ch))
+				name.append((char) ch);
+		}
+		if (ch == '"') {
+			while ((ch = read()) >= 0 && ch != '"') {
+				if (ch == '\\')
+					ch = read();
+				if (ch >= 0)
+					value.append((char) ch);
+			}
+			while (ch >= 0 && ch != ']')
+				ch = read();
+		}
+		tags.put(name.toString(), value.toString());
+	}
+
+	private void readToken(int first) throws IOException {
+		token.setLength(0);
+		token.append((char) first);
+		int ch;
+		while ((ch = read()) >= 0) {
+			if (Character.isWhitespace(ch) || "{}()[];".indexOf(ch) >= 0) {
+				unread(ch);
+				return;
+			}
+			token.append((char) ch);
+		}
+	}
+
+	private void skipUntil(int end) throws IOException {
+		int ch;
+		while ((ch = read()) >= 0 && ch != end) {}
+	}
+
+	private void skipVariation() throws IOException {
+		int depth = 1, ch;
+		while (depth > 0 && (ch = read()) >= 0) {
+			switch (ch) {
+				case '(' -> depth++;
+				case ')' -> depth--;
+				case '{' -> skipUntil('}');
+				case ';' -> skipUntil('\n');
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		if (peeked != -2) {
+			int ch = peeked;
+			peeked = -2;
+			return ch;
+		}
+		return reader.read();
+	}
+
+	private void unread(int ch) {
+		peeked = ch;
+	}
+}
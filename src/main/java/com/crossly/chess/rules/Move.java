@@ -0,0 +1,56 @@
+package com.crossly.chess.rules;
+
+// Moves are packed into a single int so move lists never allocate per move.
+// bits 0-5 from, 6-11 to, 12-14 promotion type, 15-18 flags, 19-21 moving piece type
+public final class Move {
+
+	public static final int NONE = 0;
+
+	public static final int CAPTURE = 1 << 15;
+	public static final int EN_PASSANT = 1 << 16;
+	public static final int CASTLE = 1 << 17;
+	public static final int DOUBLE_PUSH = 1 << 18;
+
+	private Move() {}
+
+	public static int create(int from, int to, int pieceType, int promotion, int flags) {
+		return from | (to << 6) | (promotion << 12) | flags | (pieceType << 19);
+	}
+
+	public static int from(int move) {
+		return move & 0x3F;
+	}
+
+	public static int to(int move) {
+		return (move >>> 6) & 0x3F;
+	}
+
+	public static int promotion(int move) {
+		return (move >>> 12) & 0x7;
+	}
+
+	public static int pieceType(int move) {
+		return (move >>> 19) & 0x7;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	public static boolean isEnPassant(int move) {
+		return (move & EN_PASSANT) != 0;
+	}
+
+	public static boolean isCastle(int move) {
+		return (move & CASTLE) != 0;
+	}
+
+	public static boolean isDoublePush(int move) {
+		return (move & DOUBLE_PUSH) != 0;
+	}
+
+	// 16 bit form (from, to, promotion) used for storage, flags are recovered from the position
+	public static short toShort(int move) {
+		return (short) (move & 0x7FFF);
+	}
+}
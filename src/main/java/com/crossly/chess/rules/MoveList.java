@@ -0,0 +1,44 @@
+package com.crossly.chess.rules;
+
+public class MoveList {
+
+	private final int[] moves = new int[256];
+	private int size = 0;
+
+	public void add(int move) {
+		moves[size++] = move;
+	}
+
+	public int get(int index) {
+		return moves[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public boolean contains(int move) {
+		for (int i = 0; i < size; i++) {
+			if (moves[i] == move)
+				return true;
+		}
+		return false;
+	}
+
+	public int find(int from, int to, int promotion) {
+		for (int i = 0; i < size; i++) {
+			int move = moves[i];
+			if (Move.from(move) == from && Move.to(move) == to && Move.promotion(move) == promotion)
+				return move;
+		}
+		return Move.NONE;
+	}
+}
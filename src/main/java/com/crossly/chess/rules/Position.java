@@ -0,0 +1,500 @@
+package com.crossly.chess.rules;
+
+import java.util.Arrays;
+
+// Squares are numbered 0 (a1) to 63 (h8), file = square & 7, rank = square >> 3
+public class Position {
+
+	public static final int EMPTY = 0;
+	public static final int PAWN = 1;
+	public static final int KNIGHT = 2;
+	public static final int BISHOP = 3;
+	public static final int ROOK = 4;
+	public static final int QUEEN = 5;
+	public static final int KING = 6;
+	public static final int BLACK = 8;
+
+	public static final int WHITE_KING_SIDE = 1;
+	public static final int WHITE_QUEEN_SIDE = 2;
+	public static final int BLACK_KING_SIDE = 4;
+	public static final int BLACK_QUEEN_SIDE = 8;
+
+	public static final String STARTING_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	private static final int[][] KNIGHT_STEPS = { { 1, 2 }, { 2, 1 }, { 2, -1 }, { 1, -2 }, { -1, -2 }, { -2, -1 }, { -2, 1 }, { -1, 2 } };
+	private static final int[][] KING_STEPS = { { 1, 0 }, { 1, 1 }, { 0, 1 }, { -1, 1 }, { -1, 0 }, { -1, -1 }, { 0, -1 }, { 1, -1 } };
+	private static final int[][] ROOK_RAYS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+	private static final int[][] BISHOP_RAYS = { { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+	private static final int[] PROMOTIONS = { QUEEN, ROOK, BISHOP, KNIGHT };
+
+	// Castling rights that survive a move touching the given square
+	private static final int[] CASTLING_MASK = new int[64];
+
+	static {
+		Arrays.fill(CASTLING_MASK, 0xF);
+		CASTLING_MASK[square(0, 0)] &= ~WHITE_QUEEN_SIDE;
+		CASTLING_MASK[square(7, 0)] &= ~WHITE_KING_SIDE;
+		CASTLING_MASK[square(4, 0)] &= ~(WHITE_KING_SIDE | WHITE_QUEEN_SIDE);
+		CASTLING_MASK[square(0, 7)] &= ~BLACK_QUEEN_SIDE;
+		CASTLING_MASK[square(7, 7)] &= ~BLACK_KING_SIDE;
+		CASTLING_MASK[square(4, 7)] &= ~(BLACK_KING_SIDE | BLACK_QUEEN_SIDE);
+	}
+
+	private final byte[] board = new byte[64];
+	private boolean whiteToMove = true;
+	private int castling = 0;
+	private int epSquare = -1;
+	private int halfmoveClock = 0;
+	private int fullmoveNumber = 1;
+	private Position scratch;
+	private MoveList scratchMoves;
+
+	public Position() {}
+
+	public Position(Position other) {
+		set(other);
+	}
+
+	public static Position startingPosition() {
+		return fromFen(STARTING_FEN);
+	}
+
+	public static Position fromFen(String fen) throws IllegalArgumentException {
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 4)
+			throw new IllegalArgumentException("Incomplete FEN '" + fen + "'");
+		Position position = new Position();
+		int rank = 7, file = 0;
+		for (char ch : fields[0].toCharArray()) {
+			if (ch == '/') {
+				rank--;
+				file = 0;
+			} else if (ch >= '1' && ch <= '8') {
+				file += ch - '0';
+			} else {
+				int type = typeOfLetter(Character.toUpperCase(ch));
+				if (type == EMPTY || file > 7 || rank < 0)
+					throw new IllegalArgumentException("Invalid FEN placement '" + fields[0] + "'");
+				position.board[square(file++, rank)] = (byte) (Character.isLowerCase(ch) ? type | BLACK : type);
+			}
+		}
+		position.whiteToMove = fields[1].equals("w");
+		for (char ch : fields[2].toCharArray()) {
+			switch (ch) {
+				case 'K' -> position.castling |= WHITE_KING_SIDE;
+				case 'Q' -> position.castling |= WHITE_QUEEN_SIDE;
+				case 'k' -> position.castling |= BLACK_KING_SIDE;
+				case 'q' -> position.castling |= BLACK_QUEEN_SIDE;
+			}
+		}
+		position.epSquare = fields[3].equals("-") ? -1 : parseSquare(fields[3]);
+		try {
+			if (fields.length > 4)
+				position.halfmoveClock = Integer.parseInt(fields[4]);
+			if (fields.length > 5)
+				position.fullmoveNumber = Integer.parseInt(fields[5]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid FEN move counters '" + fen + "'");
+		}
+		return position;
+	}
+
+	public String toFen() {
+		StringBuilder fen = new StringBuilder();
+		for (int rank = 7; rank >= 0; rank--) {
+			int empty = 0;
+			for (int file = 0; file < 8; file++) {
+				int piece = board[square(file, rank)];
+				if (piece == EMPTY) {
+					empty++;
+					continue;
+				}
+				if (empty > 0)
+					fen.append(empty);
+				empty = 0;
+				char letter = letterOf(typeOf(piece));
+				fen.append(isBlack(piece) ? Character.toLowerCase(letter) : letter);
+			}
+			if (empty > 0)
+				fen.append(empty);
+			if (rank > 0)
+				fen.append('/');
+		}
+		fen.append(whiteToMove ? " w " : " b ");
+		if (castling == 0)
+			fen.append('-');
+		if ((castling & WHITE_KING_SIDE) != 0) fen.append('K');
+		if ((castling & WHITE_QUEEN_SIDE) != 0) fen.append('Q');
+		if ((castling & BLACK_KING_SIDE) != 0) fen.append('k');
+		if ((castling & BLACK_QUEEN_SIDE) != 0) fen.append('q');
+		fen.append(' ');
+		if (epSquare < 0)
+			fen.append('-');
+		else
+			appendSquare(epSquare, fen);
+		return fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+	}
+
+	public void set(Position other) {
+		System.arraycopy(other.board, 0, board, 0, 64);
+		whiteToMove = other.whiteToMove;
+		castling = other.castling;
+		epSquare = other.epSquare;
+		halfmoveClock = other.halfmoveClock;
+		fullmoveNumber = other.fullmoveNumber;
+	}
+
+	public void clear() {
+		Arrays.fill(board, (byte) EMPTY);
+		whiteToMove = true;
+		castling = 0;
+		epSquare = -1;
+		halfmoveClock = 0;
+		fullmoveNumber = 1;
+	}
+
+	public int pieceAt(int square) {
+		return board[square];
+	}
+
+	public void setPiece(int square, int piece) {
+		board[square] = (byte) piece;
+	}
+
+	public boolean isWhiteToMove() {
+		return whiteToMove;
+	}
+
+	public void setWhiteToMove(boolean whiteToMove) {
+		this.whiteToMove = whiteToMove;
+	}
+
+	public int getCastling() {
+		return castling;
+	}
+
+	public void setCastling(int castling) {
+		this.castling = castling;
+	}
+
+	public int getEpSquare() {
+		return epSquare;
+	}
+
+	public void setEpSquare(int epSquare) {
+		this.epSquare = epSquare;
+	}
+
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+
+	public int getFullmoveNumber() {
+		return fullmoveNumber;
+	}
+
+	public void generateLegalMoves(MoveList moves) {
+		moves.clear();
+		MoveList pseudo = getScratchMoves();
+		generatePseudoLegalMoves(pseudo);
+		for (int i = 0; i < pseudo.size(); i++) {
+			int move = pseudo.get(i);
+			if (isLegal(move))
+				moves.add(move);
+		}
+	}
+
+	public boolean hasLegalMove() {
+		MoveList pseudo = getScratchMoves();
+		generatePseudoLegalMoves(pseudo);
+		for (int i = 0; i < pseudo.size(); i++) {
+			if (isLegal(pseudo.get(i)))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean isLegal(int move) {
+		Position after = getScratch();
+		after.set(this);
+		after.play(move);
+		int king = after.findKing(whiteToMove);
+		return king < 0 || !after.isSquareAttacked(king, !whiteToMove);
+	}
+
+	public boolean isInCheck() {
+		int king = findKing(whiteToMove);
+		return king >= 0 && isSquareAttacked(king, !whiteToMove);
+	}
+
+	public int findMove(int from, int to, int promotion) {
+		MoveList pseudo = getScratchMoves();
+		generatePseudoLegalMoves(pseudo);
+		int move = pseudo.find(from, to, promotion);
+		return move != Move.NONE && isLegal(move) ? move : Move.NONE;
+	}
+
+	public void generatePseudoLegalMoves(MoveList moves) {
+		moves.clear();
+		int own = whiteToMove ? 0 : BLACK;
+		for (int from = 0; from < 64; from++) {
+			int piece = board[from];
+			if (piece == EMPTY || (piece & BLACK) != own)
+				continue;
+			switch (typeOf(piece)) {
+				case PAWN -> generatePawnMoves(from, moves);
+				case KNIGHT -> generateSteps(from, KNIGHT, KNIGHT_STEPS, moves);
+				case BISHOP -> generateRays(from, BISHOP, BISHOP_RAYS, moves);
+				case ROOK -> generateRays(from, ROOK, ROOK_RAYS, moves);
+				case QUEEN -> {
+					generateRays(from, QUEEN, ROOK_RAYS, moves);
+					generateRays(from, QUEEN, BISHOP_RAYS, moves);
+				}
+				case KING -> {
+					generateSteps(from, KING, KING_STEPS, moves);
+					generateCastling(from, moves);
+				}
+			}
+		}
+	}
+
+	public void play(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int piece = board[from];
+		int captured = board[to];
+		board[to] = (byte) piece;
+		board[from] = EMPTY;
+		if (Move.isEnPassant(move)) {
+			board[to + (whiteToMove ? -8 : 8)] = EMPTY;
+			captured = PAWN;
+		} else if (Move.isCastle(move)) {
+			int rank = rankOf(from);
+			if (fileOf(to) == 6) {
+				board[square(5, rank)] = board[square(7, rank)];
+				board[square(7, rank)] = EMPTY;
+			} else {
+				board[square(3, rank)] = board[square(0, rank)];
+				board[square(0, rank)] = EMPTY;
+			}
+		}
+		if (Move.promotion(move) != EMPTY)
+			board[to] = (byte) (Move.promotion(move) | (piece & BLACK));
+		castling &= CASTLING_MASK[from] & CASTLING_MASK[to];
+		epSquare = Move.isDoublePush(move) ? (from + to) >> 1 : -1;
+		halfmoveClock = typeOf(piece) == PAWN || captured != EMPTY ? 0 : halfmoveClock + 1;
+		if (!whiteToMove)
+			fullmoveNumber++;
+		whiteToMove = !whiteToMove;
+	}
+
+	public boolean isSquareAttacked(int square, boolean byWhite) {
+		int side = byWhite ? 0 : BLACK;
+		int file = fileOf(square), rank = rankOf(square);
+		int pawnRank = rank + (byWhite ? -1 : 1);
+		if (pawnRank >= 0 && pawnRank < 8) {
+			if (file > 0 && board[square(file - 1, pawnRank)] == (PAWN | side))
+				return true;
+			if (file < 7 && board[square(file + 1, pawnRank)] == (PAWN | side))
+				return true;
+		}
+		if (isStepAttacked(file, rank, KNIGHT_STEPS, KNIGHT | side) || isStepAttacked(file, rank, KING_STEPS, KING | side))
+			return true;
+		return isRayAttacked(file, rank, ROOK_RAYS, ROOK | side, QUEEN | side) ||
+				isRayAttacked(file, rank, BISHOP_RAYS, BISHOP | side, QUEEN | side);
+	}
+
+	public int findKing(boolean white) {
+		int king = white ? KING : KING | BLACK;
+		for (int square = 0; square < 64; square++) {
+			if (board[square] == king)
+				return square;
+		}
+		return -1;
+	}
+
+	public static int square(int file, int rank) {
+		return (rank << 3) | file;
+	}
+
+	public static int fileOf(int square) {
+		return square & 7;
+	}
+
+	public static int rankOf(int square) {
+		return square >> 3;
+	}
+
+	public static int typeOf(int piece) {
+		return piece & 7;
+	}
+
+	public static boolean isBlack(int piece) {
+		return (piece & BLACK) != 0;
+	}
+
+	public static int parseSquare(CharSequence text) throws IllegalArgumentException {
+		if (text.length() != 2)
+			throw new IllegalArgumentException("Invalid square '" + text + "'");
+		int file = text.charAt(0) - 'a';
+		int rank = text.charAt(1) - '1';
+		if (file < 0 || file > 7 || rank < 0 || rank > 7)
+			throw new IllegalArgumentException("Invalid square '" + text + "'");
+		return square(file, rank);
+	}
+
+	public static StringBuilder appendSquare(int square, StringBuilder out) {
+		return out.append((char) ('a' + fileOf(square))).append((char) ('1' + rankOf(square)));
+	}
+
+	public static char letterOf(int type) {
+		return switch (type) {
+			case PAWN -> 'P';
+			case KNIGHT -> 'N';
+			case BISHOP -> 'B';
+			case ROOK -> 'R';
+			case QUEEN -> 'Q';
+			case KING -> 'K';
+			default -> '?';
+		};
+	}
+
+	public static int typeOfLetter(char letter) {
+		return switch (letter) {
+			case 'P' -> PAWN;
+			case 'N' -> KNIGHT;
+			case 'B' -> BISHOP;
+			case 'R' -> ROOK;
+			case 'Q' -> QUEEN;
+			case 'K' -> KING;
+			default -> EMPTY;
+		};
+	}
+
+	@Override
+	public String toString() {
+		return toFen();
+	}
+
+	private void generatePawnMoves(int from, MoveList moves) {
+		int dir = whiteToMove ? 8 : -8;
+		int startRank = whiteToMove ? 1 : 6;
+		int lastRank = whiteToMove ? 7 : 0;
+		int file = fileOf(from);
+		int to = from + dir;
+		if (to < 0 || to > 63)
+			return;
+		if (board[to] == EMPTY) {
+			addPawnMove(from, to, 0, moves, lastRank);
+			if (rankOf(from) == startRank && board[to + dir] == EMPTY)
+				moves.add(Move.create(from, to + dir, PAWN, EMPTY, Move.DOUBLE_PUSH));
+		}
+		for (int side = -1; side <= 1; side += 2) {
+			if (file + side < 0 || file + side > 7)
+				continue;
+			int target = to + side;
+			int piece = board[target];
+			if (piece != EMPTY && isBlack(piece) == whiteToMove)
+				addPawnMove(from, target, Move.CAPTURE, moves, lastRank);
+			else if (target == epSquare)
+				moves.add(Move.create(from, target, PAWN, EMPTY, Move.CAPTURE | Move.EN_PASSANT));
+		}
+	}
+
+	private static void addPawnMove(int from, int to, int flags, MoveList moves, int lastRank) {
+		if (rankOf(to) == lastRank) {
+			for (int promotion : PROMOTIONS)
+				moves.add(Move.create(from, to, PAWN, promotion, flags));
+		} else
+			moves.add(Move.create(from, to, PAWN, EMPTY, flags));
+	}
+
+	private void generateSteps(int from, int type, int[][] steps, MoveList moves) {
+		int file = fileOf(from), rank = rankOf(from);
+		for (int[] step : steps) {
+			int f = file + step[0], r = rank + step[1];
+			if (f < 0 || f > 7 || r < 0 || r > 7)
+				continue;
+			addTarget(from, square(f, r), type, moves);
+		}
+	}
+
+	private void generateRays(int from, int type, int[][] rays, MoveList moves) {
+		int file = fileOf(from), rank = rankOf(from);
+		for (int[] ray : rays) {
+			int f = file + ray[0], r = rank + ray[1];
+			while (f >= 0 && f <= 7 && r >= 0 && r <= 7) {
+				if (!addTarget(from, square(f, r), type, moves))
+					break;
+				f += ray[0];
+				r += ray[1];
+			}
+		}
+	}
+
+	// Returns true when the target was empty and a ray may continue through it
+	private boolean addTarget(int from, int to, int type, MoveList moves) {
+		int piece = board[to];
+		if (piece == EMPTY) {
+			moves.add(Move.create(from, to, type, EMPTY, 0));
+			return true;
+		}
+		if (isBlack(piece) == whiteToMove)
+			moves.add(Move.create(from, to, type, EMPTY, Move.CAPTURE));
+		return false;
+	}
+
+	private void generateCastling(int from, MoveList moves) {
+		int rank = whiteToMove ? 0 : 7;
+		if (from != square(4, rank))
+			return;
+		int kingSide = whiteToMove ? WHITE_KING_SIDE : BLACK_KING_SIDE;
+		int queenSide = whiteToMove ? WHITE_QUEEN_SIDE : BLACK_QUEEN_SIDE;
+		if ((castling & (kingSide | queenSide)) == 0 || isSquareAttacked(from, !whiteToMove))
+			return;
+		if ((castling & kingSide) != 0 && board[square(5, rank)] == EMPTY && board[square(6, rank)] == EMPTY &&
+				!isSquareAttacked(square(5, rank), !whiteToMove))
+			moves.add(Move.create(from, square(6, rank), KING, EMPTY, Move.CASTLE));
+		if ((castling & queenSide) != 0 && board[square(3, rank)] == EMPTY && board[square(2, rank)] == EMPTY &&
+				board[square(1, rank)] == EMPTY && !isSquareAttacked(square(3, rank), !whiteToMove))
+			moves.add(Move.create(from, square(2, rank), KING, EMPTY, Move.CASTLE));
+	}
+
+	private boolean isStepAttacked(int file, int rank, int[][] steps, int attacker) {
+		for (int[] step : steps) {
+			int f = file + step[0], r = rank + step[1];
+			if (f >= 0 && f <= 7 && r >= 0 && r <= 7 && board[square(f, r)] == attacker)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isRayAttacked(int file, int rank, int[][] rays, int attacker, int queen) {
+		for (int[] ray : rays) {
+			int f = file + ray[0], r = rank + ray[1];
+			while (f >= 0 && f <= 7 && r >= 0 && r <= 7) {
+				int piece = board[square(f, r)];
+				if (piece != EMPTY) {
+					if (piece == attacker || piece == queen)
+						return true;
+					break;
+				}
+				f += ray[0];
+				r += ray[1];
+			}
+		}
+		return false;
+	}
+
+	private Position getScratch() {
+		if (scratch == null)
+			scratch = new Position();
+		return scratch;
+	}
+
+	private MoveList getScratchMoves() {
+		if (scratchMoves == null)
+			scratchMoves = new MoveList();
+		return scratchMoves;
+	}
+}
@@ -0,0 +1,107 @@
+package com.crossly.chess.rules;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+// Keys use the Polyglot layout: 768 piece-square entries, 4 castling, 8 en passant files, 1 side to move
+public class Zobrist {
+
+	public static final int TABLE_SIZE = 781;
+	private static final int CASTLE_OFFSET = 768;
+	private static final int EP_OFFSET = 772;
+	private static final int TURN_OFFSET = 780;
+
+	public static final Zobrist DEFAULT = new Zobrist(generateTable(0x3C6EF372FE94F82AL));
+	// Key of the starting position under Polyglot's Random64 table, used to check a loaded table
+	public static final long POLYGLOT_START_KEY = 0x463B96181691FC9CL;
+	// Classpath resource holding Polyglot's Random64 table, bundled with the game
+	public static final String POLYGLOT_RESOURCE = "polyglot-random64.txt";
+	private static final Pattern HEX_VALUE = Pattern.compile("\\b(?:0[xX])?([0-9A-Fa-f]{16})\\b");
+
+	private static Zobrist polyglot;
+
+	private final long[] table;
+
+	public Zobrist(long[] table) {
+		if (table.length != TABLE_SIZE)
+			throw new IllegalArgumentException("Zobrist table needs " + TABLE_SIZE + " entries, got " + table.length);
+		this.table = table.clone();
+	}
+
+	// Polyglot's Random64 table, read once from the bundled resource. Polyglot books are only
+	// readable with this table.
+	public static synchronized Zobrist polyglot() throws IOException {
+		if (polyglot == null) {
+			try (var in = Zobrist.class.getClassLoader().getResourceAsStream(POLYGLOT_RESOURCE)) {
+				if (in == null)
+					throw new IOException("Polyglot's Random64 table is not bundled as '" + POLYGLOT_RESOURCE + "'");
+				polyglot = readPolyglot(new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+			}
+		}
+		return polyglot;
+	}
+
+	// The table as 781 hexadecimal values, which also accepts the array as written in Polyglot's C sources
+	private static Zobrist readPolyglot(String text) throws IOException {
+		long[] table = new long[TABLE_SIZE];
+		int count = 0;
+		var matcher = HEX_VALUE.matcher(text);
+		while (matcher.find() && count < TABLE_SIZE)
+			table[count++] = Long.parseUnsignedLong(matcher.group(1), 16);
+		if (count != TABLE_SIZE)
+			throw new IOException("'" + POLYGLOT_RESOURCE + "' holds " + count + " of the " + TABLE_SIZE + " Random64 values");
+		Zobrist zobrist = new Zobrist(table);
+		if (zobrist.hash(Position.startingPosition()) != POLYGLOT_START_KEY)
+			throw new IOException("'" + POLYGLOT_RESOURCE + "' is not Polyglot's Random64 table");
+		return zobrist;
+	}
+
+	public long hash(Position position) {
+		long key = 0L;
+		for (int square = 0; square < 64; square++) {
+			int piece = position.pieceAt(square);
+			if (piece != Position.EMPTY)
+				key ^= table[64 * pieceIndex(piece) + square];
+		}
+		int castling = position.getCastling();
+		if ((castling & Position.WHITE_KING_SIDE) != 0) key ^= table[CASTLE_OFFSET];
+		if ((castling & Position.WHITE_QUEEN_SIDE) != 0) key ^= table[CASTLE_OFFSET + 1];
+		if ((castling & Position.BLACK_KING_SIDE) != 0) key ^= table[CASTLE_OFFSET + 2];
+		if ((castling & Position.BLACK_QUEEN_SIDE) != 0) key ^= table[CASTLE_OFFSET + 3];
+		if (isEpCapturable(position))
+			key ^= table[EP_OFFSET + Position.fileOf(position.getEpSquare())];
+		if (position.isWhiteToMove())
+			key ^= table[TURN_OFFSET];
+		return key;
+	}
+
+	// black pawn = 0, white pawn = 1, black knight = 2 ... white king = 11
+	private static int pieceIndex(int piece) {
+		return 2 * (Position.typeOf(piece) - 1) + (Position.isBlack(piece) ? 0 : 1);
+	}
+
+	// The en passant file only counts when a pawn of the side to move can actually capture
+	private static boolean isEpCapturable(Position position) {
+		int ep = position.getEpSquare();
+		if (ep < 0)
+			return false;
+		boolean white = position.isWhiteToMove();
+		int rank = Position.rankOf(ep) + (white ? -1 : 1);
+		int pawn = white ? Position.PAWN : Position.PAWN | Position.BLACK;
+		int file = Position.fileOf(ep);
+		return (file > 0 && position.pieceAt(Position.square(file - 1, rank)) == pawn) ||
+				(file < 7 && position.pieceAt(Position.square(file + 1, rank)) == pawn);
+	}
+
+	private static long[] generateTable(long seed) {
+		long[] table = new long[TABLE_SIZE];
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			long z = (seed += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			table[i] = z ^ (z >>> 31);
+		}
+		return table;
+	}
+}
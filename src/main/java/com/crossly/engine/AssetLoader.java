@@ -0,0 +1,108 @@
+package com.crossly.engine;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Loads assets in two steps: the decode step (file reading, image, font, model and audio
+// decoding, vertex preparation) runs on a pool of worker threads, and the upload step that
+// creates the GL or AL objects runs on the main thread from update(), which the engine calls
+// once per frame. Uploads stop for the frame once the budget is spent, so the window keeps
+// drawing while large assets arrive. The returned futures complete on the main thread, so
+// their non async stages may use GL.
+public class AssetLoader {
+
+	// A failed decode is queued with its exception, so the future fails on the main thread too
+	private record Upload<D, T>(D decoded, Exception failure, Function<D, T> upload, CompletableFuture<T> future) {
+		void run() {
+			if (failure != null) {
+				future.completeExceptionally(failure);
+				return;
+			}
+			try {
+				future.complete(upload.apply(decoded));
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private static final double DEFAULT_UPLOAD_BUDGET_MILLIS = 4;
+
+	private final ExecutorService workers;
+	private final ConcurrentLinkedQueue<Upload<?, ?>> uploads = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private int requested = 0;
+	private int finished = 0;
+	private long uploadBudgetNanos;
+
+	public AssetLoader(int threads, double uploadBudgetMillis) {
+		AtomicInteger count = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "asset-loader-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		setUploadBudget(uploadBudgetMillis);
+	}
+
+	// One worker per core, leaving one for the main thread
+	public AssetLoader() {
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEFAULT_UPLOAD_BUDGET_MILLIS);
+	}
+
+	// Decodes on a worker, then uploads the result on the main thread. Only call from the main thread.
+	public <D, T> CompletableFuture<T> load(Callable<D> decode, Function<D, T> upload) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		requested++;
+		pending.incrementAndGet();
+		workers.execute(() -> {
+			Upload<D, T> result;
+			try {
+				result = new Upload<>(decode.call(), null, upload, future);
+			} catch (Exception e) {
+				result = new Upload<>(null, e, upload, future);
+			}
+			uploads.add(result);
+		});
+		return future;
+	}
+
+	// Runs decoded uploads until the frame's budget is spent, at least one so loading always progresses
+	public void update() {
+		long start = System.nanoTime();
+		Upload<?, ?> upload;
+		while ((upload = uploads.poll()) != null) {
+			upload.run();
+			pending.decrementAndGet();
+			if (System.nanoTime() - start >= uploadBudgetNanos)
+				break;
+		}
+		finished = requested - pending.get();
+		if (pending.get() == 0)
+			requested = finished = 0;
+	}
+
+	public boolean isLoading() {
+		return pending.get() > 0;
+	}
+
+	// Share of the assets requested since the loader was last idle that are done, failed ones included
+	public float getProgress() {
+		return requested == 0 ? 1 : (float) finished / requested;
+	}
+
+	public double getUploadBudget() {
+		return uploadBudgetNanos / 1e6;
+	}
+
+	public void setUploadBudget(double uploadBudgetMillis) {
+		uploadBudgetNanos = (long) (uploadBudgetMillis * 1e6);
+	}
+
+	// Decodes still running are abandoned, their uploads never happen
+	public void shutdown() {
+		workers.shutdownNow();
+		uploads.clear();
+	}
+}
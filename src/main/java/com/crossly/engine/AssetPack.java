@@ -0,0 +1,186 @@
+package com.crossly.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Every asset in one file, mapped once when opened. Stored entries are handed out as slices of the
+// mapping without copying, deflated ones are inflated into a fresh direct buffer per read. Entries
+// are named by their path relative to the packed directory with forward slashes, the same paths
+// the engine's loaders are given, and start on ALIGNMENT byte boundaries.
+//
+// Layout, little endian: magic, version, entry count, then per entry the name as length prefixed
+// UTF-8, offset, stored size, size and flags, then the entry data.
+public class AssetPack implements Closeable {
+
+	private record Entry(long offset, int storedSize, int size, boolean deflated) {}
+
+	private static final int MAGIC = 0x41504B31;
+	private static final int VERSION = 1;
+	private static final int ALIGNMENT = 16;
+	private static final int DEFLATED = 1;
+	// Entries are only stored deflated when that saves at least an eighth, most images and audio
+	// are compressed already and would just cost inflating
+	private static final int MIN_SAVING_SHIFT = 3;
+
+	private final FileChannel channel;
+	private final ByteBuffer mapping;
+	private final Map<String, Entry> entries;
+	private final long modified;
+
+	private AssetPack(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		if (channel.size() > Integer.MAX_VALUE) {
+			channel.close();
+			throw new IOException("Asset pack '" + path + "' is over 2 GB");
+		}
+		mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		modified = Files.getLastModifiedTime(path).toMillis();
+		try {
+			if (mapping.getInt() != MAGIC || mapping.getInt() != VERSION)
+				throw new IOException("'" + path + "' is not an asset pack");
+			int count = mapping.getInt();
+			entries = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				byte[] name = new byte[mapping.getInt()];
+				mapping.get(name);
+				long offset = mapping.getLong();
+				int storedSize = mapping.getInt(), size = mapping.getInt(), flags = mapping.getInt();
+				if (offset + storedSize > mapping.capacity())
+					throw new IOException("Asset pack '" + path + "' is truncated");
+				entries.put(new String(name, StandardCharsets.UTF_8), new Entry(offset, storedSize, size, (flags & DEFLATED) != 0));
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e instanceof IOException io ? io : new IOException(e);
+		}
+	}
+
+	public static AssetPack open(Path path) throws IOException {
+		return new AssetPack(path);
+	}
+
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	// Null when the pack lacks the entry. Safe to call from any thread.
+	public ByteBuffer get(String name) {
+		Entry entry = entries.get(name);
+		if (entry == null)
+			return null;
+		ByteBuffer stored = mapping.slice((int) entry.offset(), entry.storedSize());
+		if (!entry.deflated())
+			return stored;
+		ByteBuffer data = ByteBuffer.allocateDirect(entry.size());
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(stored);
+			while (data.hasRemaining() && !inflater.finished())
+				if (inflater.inflate(data) == 0 && inflater.needsInput())
+					break;
+		} catch (DataFormatException e) {
+			throw new RuntimeException("Corrupt asset '" + name + "' in pack", e);
+		} finally {
+			inflater.end();
+		}
+		if (data.hasRemaining())
+			throw new RuntimeException("Truncated asset '" + name + "' in pack");
+		return data.flip();
+	}
+
+	// Uncompressed size, -1 when the pack lacks the entry
+	public int getSize(String name) {
+		Entry entry = entries.get(name);
+		return entry != null ? entry.size() : -1;
+	}
+
+	// When the pack file was last written, stands in for its entries' modification times
+	public long getModified() {
+		return modified;
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(entries.keySet());
+	}
+
+	// The mapping stays valid until it is garbage collected
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// Packs every file under the directory, returns the entry count
+	public static int write(Path directory, Path pack) throws IOException {
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			files = walk.filter(Files::isRegularFile).sorted().toList();
+		}
+		List<byte[]> names = new ArrayList<>(files.size());
+		int tocSize = 12;
+		for (var file : files) {
+			byte[] name = directory.relativize(file).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8);
+			names.add(name);
+			tocSize += 4 + name.length + 8 + 12;
+		}
+		Path temp = pack.resolveSibling(pack.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer toc = ByteBuffer.allocate(tocSize).order(ByteOrder.LITTLE_ENDIAN);
+			toc.putInt(MAGIC).putInt(VERSION).putInt(files.size());
+			long offset = align(tocSize);
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			try {
+				for (int i = 0; i < files.size(); i++) {
+					byte[] data = Files.readAllBytes(files.get(i));
+					byte[] deflated = deflate(deflater, data);
+					boolean useDeflated = deflated.length <= data.length - (data.length >> MIN_SAVING_SHIFT);
+					byte[] stored = useDeflated ? deflated : data;
+					toc.putInt(names.get(i).length).put(names.get(i))
+							.putLong(offset).putInt(stored.length).putInt(data.length).putInt(useDeflated ? DEFLATED : 0);
+					writeFully(out, ByteBuffer.wrap(stored), offset);
+					offset = align(offset + stored.length);
+				}
+			} finally {
+				deflater.end();
+			}
+			writeFully(out, toc.flip(), 0);
+		}
+		Files.move(temp, pack, StandardCopyOption.REPLACE_EXISTING);
+		return files.size();
+	}
+
+	private static byte[] deflate(Deflater deflater, byte[] data) {
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] buffer = new byte[Math.max(64, data.length)];
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			length += deflater.deflate(buffer, length, buffer.length - length);
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+}
@@ -0,0 +1,20 @@
+package com.crossly.engine;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Usage:
+//   <asset directory> <pack file>
+// Packs e.g. src/main/resources into assets.pack, which the engine opens from the working directory.
+public class AssetPackTool {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: <asset directory> <pack file>");
+			return;
+		}
+		long start = System.nanoTime();
+		int count = AssetPack.write(Paths.get(args[0]), Paths.get(args[1]));
+		System.out.printf("Packed %d assets into '%s' in %.1fs%n", count, args[1], (System.nanoTime() - start) / 1e9);
+	}
+}
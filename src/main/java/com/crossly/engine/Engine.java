@@ -1,14 +1,22 @@
 package com.crossly.engine;
 
 import com.crossly.engine.audio.AudioManager;
+import com.crossly.engine.graphics.GLState;
 import com.crossly.engine.graphics.Mesh;
 import com.crossly.engine.input.Input;
 import com.crossly.engine.time.Timer;
 import com.crossly.engine.window.Window;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class Engine {
 
@@ -17,7 +25,18 @@ public abstract class Engine {
 	private String windowTitle;
 	private boolean windowResizable;
 
+	private static final double IDLE_WAIT_SECONDS = .5;
+	// Built with AssetPackTool, assets it holds are read from it instead of the file system
+	private static final Path ASSET_PACK_PATH = Paths.get("assets.pack");
+
+	private static final Map<String, String> absolutePaths = new ConcurrentHashMap<>();
+	private static AssetPack assetPack = null;
+
 	protected boolean running = true;
+	private boolean renderOnDemand = false;
+	private boolean renderRequested = true;
+	private AssetLoader assetLoader;
+	private ResourceManager resources;
 
 	protected Engine() {
 		windowWidth = 800;
@@ -38,20 +57,84 @@ public abstract class Engine {
 
 	public void play() {
 		Input input;
+		openAssetPack();
 		Window window = new Window(this, input = new Input());
 		Timer.init();
 		AudioManager audioManager = new AudioManager();
+		assetLoader = new AssetLoader();
+		resources = new ResourceManager(assetLoader);
 		onCreate();
-		while (window.isOpen() && running) {
+		while (running) {
+			// Loading progress is drawn, so frames keep coming until every asset is in
+			if (assetLoader.isLoading())
+				renderRequested = true;
+			if (renderOnDemand && !renderRequested) {
+				window.waitEvents(IDLE_WAIT_SECONDS);
+				// The time spent waiting is not frame time, animations resume from here
+				Timer.init();
+			} else
+				window.pollEvents();
+			if (window.shouldClose())
+				break;
+			assetLoader.update();
 			onUpdate(input);
-			onRender();
+			if (!renderOnDemand || renderRequested) {
+				renderRequested = false;
+				onRender();
+				window.swapBuffers();
+				GLState.endFrame();
+				resources.endFrame();
+			}
 			input.update();
 			Timer.update();
 		}
+		assetLoader.shutdown();
 		Mesh.UNIT_2D_MESH.delete();
 		onExit();
+		resources.deleteAll();
 		audioManager.cleanup();
 		window.cleanup();
+		if (assetPack != null) {
+			try {
+				assetPack.close();
+			} catch (IOException ignored) {}
+		}
+	}
+
+	private static void openAssetPack() {
+		if (!Files.isRegularFile(ASSET_PACK_PATH))
+			return;
+		try {
+			assetPack = AssetPack.open(ASSET_PACK_PATH);
+		} catch (IOException e) {
+			System.err.println("Could not open the asset pack, reading loose files: " + e.getMessage());
+		}
+	}
+
+	// Asset decoding off the main thread, available from onCreate on
+	public AssetLoader getAssetLoader() {
+		return assetLoader;
+	}
+
+	// Shared, reference counted fonts, models and textures, available from onCreate on
+	public ResourceManager getResources() {
+		return resources;
+	}
+
+	public boolean isRenderOnDemand() {
+		return renderOnDemand;
+	}
+
+	// When on, frames are only rendered after input, a resize or a requestRender() call and the
+	// loop sleeps in between, keeping the last presented frame on screen
+	public void setRenderOnDemand(boolean renderOnDemand) {
+		this.renderOnDemand = renderOnDemand;
+		renderRequested = true;
+	}
+
+	// Asks for a frame in render on demand mode, e.g. every update while something animates
+	public void requestRender() {
+		renderRequested = true;
 	}
 
 	public int getWindowWidth() {
@@ -87,7 +170,12 @@ public abstract class Engine {
 	}
 
 	// Static utility functions
+	// Resolved once per path, the class loader lookup is slow on network mounted installs
 	public static String getAbsolutePath(String path) {
+		return absolutePaths.computeIfAbsent(path, Engine::resolvePath);
+	}
+
+	private static String resolvePath(String path) {
 		var url = Engine.class.getClassLoader().getResource(path);
 		if (url != null)
 			return URLDecoder.decode(url.getFile().substring(1), Charset.defaultCharset());
@@ -96,4 +184,25 @@ public abstract class Engine {
 			throw new RuntimeException("File '" + path + "' does not exist!");
 		return file.getAbsolutePath();
 	}
+
+	// Null when no asset pack was found at startup
+	public static AssetPack getAssetPack() {
+		return assetPack;
+	}
+
+	// An asset's bytes, a slice of the asset pack when it holds the path, else the file read into a
+	// direct buffer. Callers never free the buffer. Safe to call from any thread.
+	public static ByteBuffer readAsset(String path) {
+		if (assetPack != null) {
+			ByteBuffer data = assetPack.get(path);
+			if (data != null)
+				return data;
+		}
+		try {
+			byte[] bytes = Files.readAllBytes(Paths.get(getAbsolutePath(path)));
+			return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
@@ -0,0 +1,176 @@
+package com.crossly.engine;
+
+import com.crossly.engine.graphics.FontAtlas;
+import com.crossly.engine.graphics.ImageTexture;
+import com.crossly.engine.graphics.Model;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+// Registry of loaded resources keyed by path and load parameters, so loading the same thing twice
+// shares one copy. Every acquire returns a handle holding one reference; once the last is released
+// the resource is deleted DELETE_DELAY_FRAMES frames later rather than straight away, so a frame
+// that releases and acquires it again, like a quick load rebuilding the board, keeps it resident.
+// Main thread only, as deleting needs the GL context.
+public class ResourceManager {
+
+	public static final class Handle<T> {
+		private final Entry<T> entry;
+		private boolean released = false;
+
+		private Handle(Entry<T> entry) {
+			this.entry = entry;
+		}
+
+		// Null until an asynchronous load completes
+		public T get() {
+			return entry.future.isDone() && !entry.future.isCompletedExceptionally() ? entry.future.join() : null;
+		}
+
+		// Completes on the main thread when the resource is loaded
+		public CompletableFuture<T> getFuture() {
+			return entry.future;
+		}
+
+		public String getKey() {
+			return entry.key;
+		}
+
+		public void release() {
+			if (released)
+				return;
+			released = true;
+			entry.manager.release(entry);
+		}
+	}
+
+	private static final class Entry<T> {
+		final ResourceManager manager;
+		final String key;
+		final CompletableFuture<T> future;
+		final Consumer<T> delete;
+		final ToLongFunction<T> sizeOf;
+		int references = 0;
+		long releasedFrame = -1;
+
+		Entry(ResourceManager manager, String key, CompletableFuture<T> future, Consumer<T> delete, ToLongFunction<T> sizeOf) {
+			this.manager = manager;
+			this.key = key;
+			this.future = future;
+			this.delete = delete;
+			this.sizeOf = sizeOf;
+		}
+
+		long size() {
+			return future.isDone() && !future.isCompletedExceptionally() ? sizeOf.applyAsLong(future.join()) : 0;
+		}
+
+		void delete() {
+			// A load still in flight is deleted as soon as it lands
+			future.thenAccept(delete);
+		}
+	}
+
+	private static final int DELETE_DELAY_FRAMES = 2;
+
+	private final AssetLoader loader;
+	private final Map<String, Entry<?>> entries = new LinkedHashMap<>();
+	private final Set<Entry<?>> released = new LinkedHashSet<>();
+	private long frame = 0;
+
+	public ResourceManager(AssetLoader loader) {
+		this.loader = loader;
+	}
+
+	public Handle<FontAtlas> font(String path, float importSize, boolean sdf) {
+		return acquire(String.format("font %s %.0f%s", path, importSize, sdf ? " sdf" : ""),
+				() -> new FontAtlas.Source(path, importSize, sdf), FontAtlas::new, FontAtlas::delete,
+				atlas -> (long) atlas.getWidth() * atlas.getHeight());
+	}
+
+	public Handle<Model> model(String path) {
+		return acquire("model " + path, () -> new Model.Source(path), Model::new, Model::delete, Model::getByteSize);
+	}
+
+	public Handle<ImageTexture> image(String path, boolean flip, boolean pixelated) {
+		return acquire(String.format("image %s%s%s", path, flip ? " flipped" : "", pixelated ? " pixelated" : ""),
+				() -> ImageTexture.decode(path, flip), image -> new ImageTexture(image, pixelated), ImageTexture::delete,
+				texture -> (long) texture.getWidth() * texture.getHeight() * 4 * 4 / 3);
+	}
+
+	// Loads on this thread the first time the key is asked for
+	public <T> Handle<T> acquire(String key, Supplier<T> load, Consumer<T> delete, ToLongFunction<T> sizeOf) {
+		return acquireEntry(key, () -> CompletableFuture.completedFuture(load.get()), delete, sizeOf);
+	}
+
+	// Decodes on the asset loader's workers and uploads on the main thread the first time the key is asked for
+	public <D, T> Handle<T> acquire(String key, Callable<D> decode, Function<D, T> upload, Consumer<T> delete, ToLongFunction<T> sizeOf) {
+		return acquireEntry(key, () -> loader.load(decode, upload), delete, sizeOf);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Handle<T> acquireEntry(String key, Supplier<CompletableFuture<T>> load, Consumer<T> delete, ToLongFunction<T> sizeOf) {
+		Entry<T> entry = (Entry<T>) entries.get(key);
+		if (entry == null) {
+			entry = new Entry<>(this, key, load.get(), delete, sizeOf);
+			entries.put(key, entry);
+		}
+		entry.references++;
+		released.remove(entry);
+		return new Handle<>(entry);
+	}
+
+	private void release(Entry<?> entry) {
+		if (--entry.references == 0) {
+			entry.releasedFrame = frame;
+			released.add(entry);
+		}
+	}
+
+	// Deletes resources released long enough ago, call once per frame after presenting
+	public void endFrame() {
+		frame++;
+		for (var iterator = released.iterator(); iterator.hasNext(); ) {
+			var entry = iterator.next();
+			if (frame - entry.releasedFrame < DELETE_DELAY_FRAMES)
+				break;
+			iterator.remove();
+			entries.remove(entry.key);
+			entry.delete();
+		}
+	}
+
+	// Deletes everything regardless of references, reporting what was never released
+	public void deleteAll() {
+		for (var entry : entries.values()) {
+			if (entry.references > 0)
+				System.err.println("Resource '" + entry.key + "' was never released (" + entry.references + " references)");
+			entry.delete();
+		}
+		entries.clear();
+		released.clear();
+	}
+
+	public long getResidentBytes() {
+		long total = 0;
+		for (var entry : entries.values())
+			total += entry.size();
+		return total;
+	}
+
+	// One line per resident resource with its references and approximate GPU memory, largest first
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		entries.values().stream()
+				.sorted(Comparator.comparingLong((Entry<?> entry) -> entry.size()).reversed())
+				.forEach(entry -> report.append(String.format("%8.1f KB  %2d refs  %s%s%n", entry.size() / 1024.0, entry.references,
+						entry.key, entry.future.isDone() ? "" : " (loading)")));
+		report.append(String.format("%8.1f KB in %d resources%n", getResidentBytes() / 1024.0, entries.size()));
+		return report.toString();
+	}
+}
@@ -24,26 +24,29 @@ public class AudioSource {
 		MP3, WAV, UNSPECIFIED
 	}
 
+	// Decoded samples waiting for upload to an AL buffer
+	public record Clip(ByteBuffer data, int format) {}
+
 	public AudioSource(String filepath, Format type) {
+		this(decode(filepath, type));
+	}
+
+	public AudioSource(Clip clip) {
 		buffer = alGenBuffers();
 		source = alGenSources();
+		alBufferData(buffer, clip.format(), clip.data(), 44100);
+		alSourcei(source, AL_BUFFER, buffer);
+	}
+
+	// Needs no AL, so it can run on an asset loader worker
+	public static Clip decode(String filepath, Format type) {
 		filepath = Engine.getAbsolutePath(filepath);
 		try {
-			int format;
-			ByteBuffer audioBuffer;
-			format = switch (type) {
-				case MP3 -> {
-					audioBuffer = decodeMp3(filepath);
-					yield AL_FORMAT_STEREO16;
-				}
-				case WAV -> {
-					audioBuffer = decodeWav(filepath);
-					yield AL_FORMAT_MONO16;
-				}
+			return switch (type) {
+				case MP3 -> new Clip(decodeMp3(filepath), AL_FORMAT_STEREO16);
+				case WAV -> new Clip(decodeWav(filepath), AL_FORMAT_MONO16);
 				case UNSPECIFIED -> throw new UnsupportedOperationException("Unspecified audio format cannot be decoded");
 			};
-			alBufferData(buffer, format, audioBuffer, 44100);
-			alSourcei(source, AL_BUFFER, buffer);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -83,7 +86,7 @@ public class AudioSource {
 		alSourcef(source, AL_GAIN, volume);
 	}
 
-	private ByteBuffer decodeMp3(String filepath) throws Exception {
+	private static ByteBuffer decodeMp3(String filepath) throws Exception {
 		Bitstream bitstream = new Bitstream(new FileInputStream(filepath));
 		Decoder decoder = new Decoder();
 		ByteArrayOutputStream stream = new ByteArrayOutputStream();
@@ -104,7 +107,7 @@ public class AudioSource {
 		return result.flip();
 	}
 
-	private ByteBuffer decodeWav(String filepath) throws Exception {
+	private static ByteBuffer decodeWav(String filepath) throws Exception {
 		byte[] data = Files.readAllBytes(Paths.get(filepath));
 		ByteBuffer result = BufferUtils.createByteBuffer(data.length);
 		result.put(data);
@@ -0,0 +1,82 @@
+package com.crossly.engine.graphics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Reads single pixels back without stalling the render thread. Each read goes into one of a ring
+// of pixel pack buffers behind a fence, and poll() hands the bytes to the request's callback
+// once the GPU has finished with it, usually a frame later.
+public class AsyncPixelReader {
+
+	private static final int RING_SIZE = 3;
+
+	private final int[] buffers = new int[RING_SIZE];
+	private final long[] fences = new long[RING_SIZE];
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Consumer<ByteBuffer>[] callbacks = new Consumer[RING_SIZE];
+	private final int pixelBytes;
+	private int first = 0;
+	private int pending = 0;
+
+	public AsyncPixelReader(int pixelBytes) {
+		this.pixelBytes = pixelBytes;
+		glGenBuffers(buffers);
+		for (int buffer : buffers) {
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, buffer);
+			glBufferData(GL_PIXEL_PACK_BUFFER, pixelBytes, GL_STREAM_READ);
+		}
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	public boolean isPending() {
+		return pending > 0;
+	}
+
+	// Reads the pixel from the bound read framebuffer and read buffer, false if the ring is full
+	public boolean request(int x, int y, int format, int type, Consumer<ByteBuffer> callback) {
+		if (pending == RING_SIZE)
+			return false;
+		int slot = (first + pending++) % RING_SIZE;
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, buffers[slot]);
+		glReadPixels(x, y, 1, 1, format, type, 0L);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+		fences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		callbacks[slot] = callback;
+		return true;
+	}
+
+	// Delivers finished reads in request order without waiting on the ones still in flight
+	public void poll() {
+		while (pending > 0) {
+			int status = glClientWaitSync(fences[first], GL_SYNC_FLUSH_COMMANDS_BIT, 0L);
+			if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+				return;
+			glDeleteSync(fences[first]);
+			var callback = callbacks[first];
+			callbacks[first] = null;
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, buffers[first]);
+			ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, pixelBytes, GL_MAP_READ_BIT);
+			// Copied out so the callback is free to issue GL calls, including new reads
+			ByteBuffer pixel = ByteBuffer.allocate(pixelBytes).order(ByteOrder.nativeOrder());
+			if (mapped != null) {
+				pixel.put(mapped).flip();
+				glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+			}
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+			first = (first + 1) % RING_SIZE;
+			pending--;
+			if (mapped != null)
+				callback.accept(pixel);
+		}
+	}
+
+	public void delete() {
+		for (int i = 0; i < pending; i++)
+			glDeleteSync(fences[(first + i) % RING_SIZE]);
+		pending = 0;
+		glDeleteBuffers(buffers);
+	}
+}
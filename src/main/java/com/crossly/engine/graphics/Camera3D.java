@@ -1,6 +1,7 @@
 package com.crossly.engine.graphics;
 
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Quaternionf;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
@@ -21,6 +22,15 @@ public class Camera3D {
 
 	private static final Vector3f WORLD_UP = new Vector3f(0f, 1f, 0f);
 
+	// Cached matrices, rebuilt when a setter ran or the position vector was changed in place
+	private final Matrix4f projection = new Matrix4f();
+	private final Matrix4f look = new Matrix4f();
+	private final Matrix4f projectionView = new Matrix4f();
+	private final Vector3f cachedPosition = new Vector3f();
+	private final Vector3f lookTarget = new Vector3f();
+	private boolean dirty = true;
+	private int version = 0;
+
 	public Camera3D(float x, float y, float z, float aspect) {
 		this.position = new Vector3f(x, y, z);
 		this.aspect = aspect;
@@ -60,12 +70,14 @@ public class Camera3D {
 
 	public void setPosition(Vector3f position) {
 		this.position = position;
+		dirty = true;
 	}
 
 	public void setPosition(float x, float y, float z) {
 		position.x = x;
 		position.y = y;
 		position.z = z;
+		dirty = true;
 	}
 
 	public void addPosition(Vector3f amount) {
@@ -102,6 +114,7 @@ public class Camera3D {
 
 	public void setFovY(float fovy) {
 		this.fovy = fovy;
+		dirty = true;
 	}
 
 	public void rotateBy(Vector2f rotation) {
@@ -111,16 +124,46 @@ public class Camera3D {
 		updateDirections();
 	}
 
-	public Matrix4f getLookMatrix() {
-		return new Matrix4f().lookAt(position, position.add(front, new Vector3f()), WORLD_UP);
+	public Matrix4fc getLookMatrix() {
+		refresh();
+		return look;
 	}
 
 	public void setAspect(float aspect) {
 		this.aspect = aspect;
+		dirty = true;
+	}
+
+	public Matrix4fc getProjectionMatrix() {
+		refresh();
+		return projection;
+	}
+
+	public Matrix4fc getProjectionViewMatrix() {
+		refresh();
+		return projectionView;
+	}
+
+	// Changes whenever the cached matrices are rebuilt, lets callers skip re-uploading them
+	public int getVersion() {
+		refresh();
+		return version;
+	}
+
+	private void refresh() {
+		if (!dirty && position.equals(cachedPosition))
+			return;
+		cachedPosition.set(position);
+		look.setLookAt(position, position.add(front, lookTarget), WORLD_UP);
+		projection.setPerspective((float) Math.toRadians(fovy), aspect, 0.1f, 1000f);
+		projection.mul(look, projectionView);
+		dirty = false;
+		version++;
 	}
 
-	public Matrix4f getProjectionViewMatrix() {
-		return new Matrix4f().perspective((float) Math.toRadians(fovy), aspect, 0.1f, 1000f).mul(getLookMatrix());
+	// World space ray through a window position, with y measured from the bottom of the viewport
+	public void getPickRay(float x, float y, int viewportWidth, int viewportHeight, Vector3f origin, Vector3f direction) {
+		getProjectionViewMatrix().unprojectRay(x, y, new int[] { 0, 0, viewportWidth, viewportHeight }, origin, direction);
 	}
 
 	private void updateRotation() {
@@ -142,5 +185,6 @@ public class Camera3D {
 		yawLast = yaw;
 		front.rotate(new Quaternionf().rotateXYZ(pitchDiff, yawDiff, 0f));
 		front.cross(WORLD_UP, right);
+		dirty = true;
 	}
 }
@@ -1,60 +1,167 @@
 package com.crossly.engine.graphics;
 
 import com.crossly.engine.Engine;
-import org.lwjgl.stb.STBTTAlignedQuad;
-import org.lwjgl.stb.STBTTPackContext;
-import org.lwjgl.stb.STBTTPackedchar;
+import org.lwjgl.stb.STBTTFontinfo;
+import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
 
 import static org.lwjgl.opengl.GL33.*;
 import static org.lwjgl.stb.STBTruetype.*;
 
+// Glyphs of a font in one single channel texture of fixed size. Glyphs are rasterized the first
+// time they are asked for, any codepoint the font has, and shelf packed into rows of the page.
+// When the page is full the least recently used row is cleared for the new glyph, so memory
+// stays bounded and getEvictions() tells text layouts holding old coordinates to redo them.
+//
+// The bitmap mode rasterizes coverage at importSize and looks soft when drawn much larger. The
+// signed distance field mode stores the distance to the glyph outline instead, so one small page
+// stays sharp at every size. The ASCII distance fields are generated once and cached under
+// cache/fonts.
 public class FontAtlas extends Texture {
 
-	private final STBTTPackedchar.Buffer packedChars;
-	private final STBTTAlignedQuad.Buffer alignedQuads;
+	// Placement in the atlas and metrics in atlas pixels at importSize, offsets from the pen
+	// position on the baseline to the top left corner
+	public record Glyph(float s0, float t0, float s1, float t1, float xoff, float yoff, float width, float height, float xadvance) {}
+
+	private record Raster(int width, int height, int xoff, int yoff, float xadvance, byte[] pixels) {}
+
+	private record Entry(Glyph glyph, Shelf shelf) {}
+
+	private static class Shelf {
+		final int y, height;
+		int x = 0;
+		long lastUse = 0;
+		final List<Integer> codepoints = new ArrayList<>();
+
+		Shelf(int y, int height) {
+			this.y = y;
+			this.height = height;
+		}
+	}
+
+	private final static int FIRST_CHAR = 32;
+	private final static int PRELOADED_CHARS = 127 - FIRST_CHAR;
+	private final static int BITMAP_PAGE_SIZE = 1024;
+	private final static int SDF_PAGE_SIZE = 512;
+	// Empty texels between glyphs so linear filtering never picks up a neighbour
+	private final static int GLYPH_GAP = 1;
+	private final static Path SDF_CACHE_DIRECTORY = Paths.get("cache", "fonts");
+	private final static int SDF_CACHE_MAGIC = 0x53444632;
+	// Distances of up to SDF_PADDING pixels are stored around each glyph, the outline maps to 0.5
+	private final static int SDF_PADDING = 6;
+	private final static int SDF_ON_EDGE = 128;
+
 	private final float importSize;
-	private final static int CHARS_TO_INCLUDE = 128 - 32;
+	private final boolean sdf;
+	private final ByteBuffer ttfData;
+	private final STBTTFontinfo fontInfo;
+	private final float scale;
+	private final Map<Integer, Entry> glyphs = new HashMap<>();
+	private final List<Shelf> shelves = new ArrayList<>();
+	private int nextShelfY = 0;
+	private long useClock = 0;
+	private long pinnedAfter = 0;
+	private int evictions = 0;
 
-	public FontAtlas(String fontPath, float importSize) {
-		super();
-		super.width = super.height = 1024;
-		this.importSize = importSize;
-		ByteBuffer ttfData;
-		try {
-			byte[] data = Files.readAllBytes(Paths.get(Engine.getAbsolutePath(fontPath)));
-			ttfData = MemoryUtil.memAlloc(data.length);
-			ttfData.put(data);
-			ttfData.flip();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+	// The font read and its ASCII glyphs rasterized without GL, so it can be built on an asset
+	// loader worker. Distance fields are slow to generate, so they come from the cache when present.
+	public static final class Source {
+
+		private final float importSize;
+		private final boolean sdf;
+		private final ByteBuffer ttfData;
+		private final STBTTFontinfo fontInfo;
+		private final float scale;
+		private final Map<Integer, Raster> preloaded;
+
+		public Source(String fontPath, float importSize, boolean sdf) {
+			this.importSize = importSize;
+			this.sdf = sdf;
+			// Read straight from the asset pack mapping when packed, stb keeps pointing into it
+			ttfData = Engine.readAsset(fontPath);
+			fontInfo = STBTTFontinfo.malloc();
+			if (!stbtt_InitFont(fontInfo, ttfData)) {
+				fontInfo.free();
+				throw new RuntimeException("Font '" + fontPath + "' could not be read!");
+			}
+			scale = stbtt_ScaleForPixelHeight(fontInfo, importSize);
+			preloaded = sdf ? preloadSdf(fontPath) : new HashMap<>();
+			for (int codepoint = FIRST_CHAR; codepoint < FIRST_CHAR + PRELOADED_CHARS; codepoint++)
+				preloaded.computeIfAbsent(codepoint, this::rasterize);
 		}
-		ByteBuffer imageData = MemoryUtil.memAlloc(width * height);
-		try (STBTTPackContext ctx = STBTTPackContext.create()) {
-			stbtt_PackBegin(ctx, imageData, width, height, 0, 2);
-			packedChars = STBTTPackedchar.malloc(CHARS_TO_INCLUDE);
-			stbtt_PackFontRange(ctx, ttfData, 0, this.importSize, 32, packedChars);
-			stbtt_PackEnd(ctx);
+
+		private Raster rasterize(int codepoint) {
+			return FontAtlas.rasterize(fontInfo, scale, sdf, codepoint);
 		}
-		alignedQuads = STBTTAlignedQuad.malloc(CHARS_TO_INCLUDE);
-		for (int i = 0; i < CHARS_TO_INCLUDE; i++) {
-			float[] x, y;
-			x = y = new float[1];
-			stbtt_GetPackedQuad(packedChars, width, height, i,  x, y, alignedQuads.get(i), true);
+
+		private Map<Integer, Raster> preloadSdf(String fontPath) {
+			CRC32 crc = new CRC32();
+			crc.update(ttfData.duplicate());
+			String name = Paths.get(fontPath).getFileName().toString();
+			Path cacheFile = SDF_CACHE_DIRECTORY.resolve(String.format("%s-%.0f-%08x.sdf", name, importSize, crc.getValue()));
+			Map<Integer, Raster> rasters = new HashMap<>();
+			if (Files.isRegularFile(cacheFile)) {
+				try {
+					return readSdfCache(cacheFile);
+				} catch (IOException e) {
+					System.err.println("Rebuilding unreadable font cache '" + cacheFile + "': " + e.getMessage());
+				}
+			}
+			for (int codepoint = FIRST_CHAR; codepoint < FIRST_CHAR + PRELOADED_CHARS; codepoint++)
+				rasters.put(codepoint, rasterize(codepoint));
+			try {
+				writeSdfCache(cacheFile, rasters);
+			} catch (IOException e) {
+				System.err.println("Could not write font cache '" + cacheFile + "': " + e.getMessage());
+			}
+			return rasters;
 		}
-		glBindTexture(GL_TEXTURE_2D, textureId);
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, width, height, 0, GL_RED, GL_UNSIGNED_BYTE, imageData);
+	}
+
+	public FontAtlas(String fontPath, float importSize, boolean sdf) {
+		this(new Source(fontPath, importSize, sdf));
+	}
+
+	public FontAtlas(Source source) {
+		super();
+		importSize = source.importSize;
+		sdf = source.sdf;
+		ttfData = source.ttfData;
+		fontInfo = source.fontInfo;
+		scale = source.scale;
+
+		super.width = super.height = sdf ? SDF_PAGE_SIZE : BITMAP_PAGE_SIZE;
+		ByteBuffer clear = MemoryUtil.memCalloc(width * height);
+		GLState.bindTexture(textureId);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, width, height, 0, GL_RED, GL_UNSIGNED_BYTE, clear);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-		glGenerateMipmap(GL_TEXTURE_2D);
-		glBindTexture(GL_TEXTURE_2D, 0);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		MemoryUtil.memFree(clear);
+
+		for (int codepoint = FIRST_CHAR; codepoint < FIRST_CHAR + PRELOADED_CHARS; codepoint++) {
+			Entry entry = place(codepoint, source.preloaded.get(codepoint));
+			if (entry != null)
+				glyphs.put(codepoint, entry);
+		}
+	}
+
+	public FontAtlas(String fontPath, float importSize) {
+		this(fontPath, importSize, false);
 	}
 
 	public FontAtlas(String fontPath) {
@@ -65,19 +172,183 @@ public class FontAtlas extends Texture {
 		return importSize;
 	}
 
-	public STBTTAlignedQuad getAlignedQuad(int i) {
-		return alignedQuads.get(i);
+	public boolean isSdf() {
+		return sdf;
 	}
 
-	public STBTTAlignedQuad getAlignedQuad(char ch) {
-		return getAlignedQuad(ch - 32);
+	// Rows cleared to make room so far, coordinates taken before a change may be stale
+	public int getEvictions() {
+		return evictions;
 	}
 
-	public STBTTPackedchar getPackedChar(int i) {
-		return packedChars.get(i);
+	// Rasterizes the glyph on first use, the font's missing glyph box stands in for codepoints it
+	// lacks. Null for control characters and when the page is too full of glyphs in use.
+	public Glyph getGlyph(int codepoint) {
+		if (codepoint < FIRST_CHAR)
+			return null;
+		Entry entry = glyphs.get(codepoint);
+		if (entry == null) {
+			entry = place(codepoint, rasterize(fontInfo, scale, sdf, codepoint));
+			if (entry == null)
+				return null;
+			glyphs.put(codepoint, entry);
+		}
+		if (entry.shelf() != null)
+			entry.shelf().lastUse = ++useClock;
+		return entry.glyph();
+	}
+
+	// Marks a glyph as used by something drawn from a cached layout
+	void touch(int codepoint) {
+		Entry entry = glyphs.get(codepoint);
+		if (entry != null && entry.shelf() != null)
+			entry.shelf().lastUse = ++useClock;
+	}
+
+	// Glyphs asked for from here on are kept until the next call, so a layout never evicts its own glyphs
+	void beginLayout() {
+		pinnedAfter = useClock;
+	}
+
+	@Override
+	public void delete() {
+		super.delete();
+		fontInfo.free();
 	}
 
-	public STBTTPackedchar getPackedChar(char ch) {
-		return getPackedChar(ch - 32);
+	private static Raster rasterize(STBTTFontinfo fontInfo, float scale, boolean sdf, int codepoint) {
+		int glyph = stbtt_FindGlyphIndex(fontInfo, codepoint);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer advance = stack.mallocInt(1), bearing = stack.mallocInt(1);
+			stbtt_GetGlyphHMetrics(fontInfo, glyph, advance, bearing);
+			float xadvance = advance.get(0) * scale;
+			if (sdf) {
+				IntBuffer w = stack.mallocInt(1), h = stack.mallocInt(1), xoff = stack.mallocInt(1), yoff = stack.mallocInt(1);
+				ByteBuffer bitmap = stbtt_GetGlyphSDF(fontInfo, scale, glyph, SDF_PADDING, (byte) SDF_ON_EDGE,
+						(float) SDF_ON_EDGE / SDF_PADDING, w, h, xoff, yoff);
+				if (bitmap == null)
+					return new Raster(0, 0, 0, 0, xadvance, null);
+				byte[] pixels = new byte[w.get(0) * h.get(0)];
+				bitmap.get(0, pixels);
+				stbtt_FreeSDF(bitmap);
+				return new Raster(w.get(0), h.get(0), xoff.get(0), yoff.get(0), xadvance, pixels);
+			}
+			IntBuffer x0 = stack.mallocInt(1), y0 = stack.mallocInt(1), x1 = stack.mallocInt(1), y1 = stack.mallocInt(1);
+			stbtt_GetGlyphBitmapBox(fontInfo, glyph, scale, scale, x0, y0, x1, y1);
+			int w = x1.get(0) - x0.get(0), h = y1.get(0) - y0.get(0);
+			if (w <= 0 || h <= 0)
+				return new Raster(0, 0, 0, 0, xadvance, null);
+			ByteBuffer bitmap = MemoryUtil.memAlloc(w * h);
+			stbtt_MakeGlyphBitmap(fontInfo, bitmap, w, h, w, scale, scale, glyph);
+			byte[] pixels = new byte[w * h];
+			bitmap.get(0, pixels);
+			MemoryUtil.memFree(bitmap);
+			return new Raster(w, h, x0.get(0), y0.get(0), xadvance, pixels);
+		}
+	}
+
+	private Entry place(int codepoint, Raster raster) {
+		if (raster.pixels() == null)
+			return new Entry(new Glyph(0, 0, 0, 0, 0, 0, 0, 0, raster.xadvance()), null);
+		Shelf shelf = findShelf(raster.width(), raster.height());
+		if (shelf == null)
+			return null;
+		int x = shelf.x;
+		shelf.x += raster.width() + GLYPH_GAP;
+		shelf.codepoints.add(codepoint);
+		ByteBuffer pixels = MemoryUtil.memAlloc(raster.pixels().length).put(raster.pixels()).flip();
+		upload(x, shelf.y, raster.width(), raster.height(), pixels);
+		MemoryUtil.memFree(pixels);
+		return new Entry(new Glyph((float) x / width, (float) shelf.y / height,
+				(float) (x + raster.width()) / width, (float) (shelf.y + raster.height()) / height,
+				raster.xoff(), raster.yoff(), raster.width(), raster.height(), raster.xadvance()), shelf);
+	}
+
+	// The lowest row with room, a new row while the page has space, else the least recently used row
+	private Shelf findShelf(int w, int h) {
+		if (w > width || h > height)
+			return null;
+		int rowHeight = (h + 7) & ~7;
+		Shelf best = null;
+		for (var shelf : shelves) {
+			if (shelf.height >= h && width - shelf.x >= w && (best == null || shelf.height < best.height))
+				best = shelf;
+		}
+		boolean roomForRow = nextShelfY + rowHeight <= height;
+		if (best != null && (best.height <= rowHeight * 2 || !roomForRow))
+			return best;
+		if (roomForRow) {
+			Shelf shelf = new Shelf(nextShelfY, rowHeight);
+			nextShelfY += rowHeight + GLYPH_GAP;
+			shelves.add(shelf);
+			return shelf;
+		}
+		Shelf oldest = null;
+		for (var shelf : shelves) {
+			if (shelf.height >= h && shelf.lastUse <= pinnedAfter && (oldest == null || shelf.lastUse < oldest.lastUse))
+				oldest = shelf;
+		}
+		if (oldest != null)
+			evict(oldest);
+		return oldest;
+	}
+
+	private void evict(Shelf shelf) {
+		for (int codepoint : shelf.codepoints)
+			glyphs.remove(codepoint);
+		shelf.codepoints.clear();
+		shelf.x = 0;
+		ByteBuffer clear = MemoryUtil.memCalloc(width * shelf.height);
+		upload(0, shelf.y, width, shelf.height, clear);
+		MemoryUtil.memFree(clear);
+		evictions++;
+	}
+
+	private void upload(int x, int y, int w, int h, ByteBuffer pixels) {
+		GLState.bindTexture(textureId);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, w, h, GL_RED, GL_UNSIGNED_BYTE, pixels);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+	}
+
+	private static Map<Integer, Raster> readSdfCache(Path cacheFile) throws IOException {
+		Map<Integer, Raster> rasters = new HashMap<>();
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+			if (in.readInt() != SDF_CACHE_MAGIC)
+				throw new IOException("Not a font cache");
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int codepoint = in.readInt(), w = in.readInt(), h = in.readInt(), xoff = in.readInt(), yoff = in.readInt();
+				float xadvance = in.readFloat();
+				byte[] pixels = null;
+				if (w > 0) {
+					pixels = new byte[w * h];
+					in.readFully(pixels);
+				}
+				rasters.put(codepoint, new Raster(w, h, xoff, yoff, xadvance, pixels));
+			}
+		}
+		return rasters;
+	}
+
+	private static void writeSdfCache(Path cacheFile, Map<Integer, Raster> rasters) throws IOException {
+		Files.createDirectories(cacheFile.getParent());
+		Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+		try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(SDF_CACHE_MAGIC);
+			out.writeInt(rasters.size());
+			for (var entry : rasters.entrySet()) {
+				Raster raster = entry.getValue();
+				out.writeInt(entry.getKey());
+				out.writeInt(raster.pixels() != null ? raster.width() : 0);
+				out.writeInt(raster.height());
+				out.writeInt(raster.xoff());
+				out.writeInt(raster.yoff());
+				out.writeFloat(raster.xadvance());
+				if (raster.pixels() != null)
+					out.write(raster.pixels());
+			}
+		}
+		Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
 	}
 }
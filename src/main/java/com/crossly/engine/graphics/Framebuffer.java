@@ -4,15 +4,25 @@ import org.joml.Vector4f;
 
 import static org.lwjgl.opengl.GL33.*;
 
+// Storage is allocated in CAPACITY_STEP sized buckets at the largest size asked for so far, and
+// rendering goes to the bottom left sub-rectangle of the current size. Resizing within the
+// capacity only moves the viewport, so dragging a window edge does not reallocate every event.
 public abstract class Framebuffer {
 
 	protected int framebufferId;
 	private final Texture frameImage;
-	private final int width;
-	private final int height;
+	private int width;
+	private int height;
+	private int capacityWidth;
+	private int capacityHeight;
+
+	private static final int CAPACITY_STEP = 256;
+	private static int screenWidth, screenHeight;
 
 	private static Vector4f clearColor = new Vector4f(0, 0, 0, 1);
-	private static final Shader SCREEN_SHADER;
+	private static final Shader SCREEN_SHADER, SHARPEN_SHADER;
+	private static final int TEXTURE_UNIFORM, UV_SCALE_UNIFORM;
+	private static final int SHARPEN_TEXTURE_UNIFORM, SHARPEN_UV_SCALE_UNIFORM, SHARPEN_TEXEL_UNIFORM, SHARPNESS_UNIFORM;
 
 	static {
 		SCREEN_SHADER = new Shader(
@@ -20,9 +30,10 @@ public abstract class Framebuffer {
 						#version 330 core
 						layout (location = 0) in vec3 a_Pos;
 						layout (location = 1) in vec2 a_TexCoord;
+						uniform vec2 u_UvScale;
 						out vec2 i_TexCoord;
 						void main() {
-							i_TexCoord = a_TexCoord;
+							i_TexCoord = a_TexCoord * u_UvScale;
 							gl_Position = vec4(a_Pos, 1.0);
 						}
 						""",
@@ -37,22 +48,65 @@ public abstract class Framebuffer {
 						""",
 				false
 		);
+		TEXTURE_UNIFORM = SCREEN_SHADER.getUniform("u_Texture");
+		UV_SCALE_UNIFORM = SCREEN_SHADER.getUniform("u_UvScale");
+		// Unsharp mask over the four direct neighbours for upscaled images, clamped to the
+		// neighbourhood's range so edges do not ring
+		SHARPEN_SHADER = new Shader(
+				"""
+						#version 330 core
+						layout (location = 0) in vec3 a_Pos;
+						layout (location = 1) in vec2 a_TexCoord;
+						uniform vec2 u_UvScale;
+						out vec2 i_TexCoord;
+						void main() {
+							i_TexCoord = a_TexCoord * u_UvScale;
+							gl_Position = vec4(a_Pos, 1.0);
+						}
+						""",
+				"""
+						#version 330 core
+						layout (location = 0) out vec4 o_Color;
+						uniform sampler2D u_Texture;
+						uniform vec2 u_TexelSize;
+						uniform float u_Sharpness;
+						in vec2 i_TexCoord;
+						void main() {
+							vec4 center = texture(u_Texture, i_TexCoord);
+							vec4 north = texture(u_Texture, i_TexCoord + vec2(0.0, u_TexelSize.y));
+							vec4 south = texture(u_Texture, i_TexCoord - vec2(0.0, u_TexelSize.y));
+							vec4 east = texture(u_Texture, i_TexCoord + vec2(u_TexelSize.x, 0.0));
+							vec4 west = texture(u_Texture, i_TexCoord - vec2(u_TexelSize.x, 0.0));
+							vec4 low = min(center, min(min(north, south), min(east, west)));
+							vec4 high = max(center, max(max(north, south), max(east, west)));
+							vec4 sharpened = center + u_Sharpness * (4.0 * center - north - south - east - west);
+							o_Color = clamp(sharpened, low, high);
+						}
+						""",
+				false
+		);
+		SHARPEN_TEXTURE_UNIFORM = SHARPEN_SHADER.getUniform("u_Texture");
+		SHARPEN_UV_SCALE_UNIFORM = SHARPEN_SHADER.getUniform("u_UvScale");
+		SHARPEN_TEXEL_UNIFORM = SHARPEN_SHADER.getUniform("u_TexelSize");
+		SHARPNESS_UNIFORM = SHARPEN_SHADER.getUniform("u_Sharpness");
 	}
 
 	public Framebuffer(int width, int height) {
 		this.width = width;
 		this.height = height;
+		capacityWidth = toCapacity(width);
+		capacityHeight = toCapacity(height);
 		framebufferId = glGenFramebuffers();
-		glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
-		frameImage = new RenderTexture(width, height, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		frameImage = new RenderTexture(capacityWidth, capacityHeight, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
 		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, frameImage.textureId, 0);
 	}
 
 	public Framebuffer(Texture frameImage, int attachment, int textureTarget) {
-		this.width = frameImage.getWidth();
-		this.height = frameImage.getHeight();
+		this.width = capacityWidth = frameImage.getWidth();
+		this.height = capacityHeight = frameImage.getHeight();
 		framebufferId = glGenFramebuffers();
-		glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, framebufferId);
 		this.frameImage = frameImage;
 		glFramebufferTexture2D(GL_FRAMEBUFFER, attachment, textureTarget, frameImage.textureId, 0);
 	}
@@ -64,11 +118,45 @@ public abstract class Framebuffer {
 	}
 
 	public void bind() {
-		glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		GLState.setViewport(0, 0, width, height);
 	}
 
 	public static void unbind() {
-		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
+		GLState.setViewport(0, 0, screenWidth, screenHeight);
+	}
+
+	// The window's framebuffer size, which unbind() restores the viewport to
+	public static void setScreenSize(int width, int height) {
+		screenWidth = width;
+		screenHeight = height;
+		GLState.setViewport(0, 0, width, height);
+	}
+
+	// Storage is only reallocated when the size outgrows the capacity. Framebuffers made around
+	// a given texture cannot grow past it.
+	public void resize(int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Framebuffer size " + width + "x" + height + " is not positive");
+		if (width > capacityWidth || height > capacityHeight) {
+			if (!(frameImage instanceof RenderTexture renderTexture))
+				throw new IllegalArgumentException("Framebuffer size " + width + "x" + height + " does not fit its "
+						+ frameImage.getWidth() + "x" + frameImage.getHeight() + " texture");
+			capacityWidth = Math.max(capacityWidth, toCapacity(width));
+			capacityHeight = Math.max(capacityHeight, toCapacity(height));
+			renderTexture.resize(capacityWidth, capacityHeight);
+			resizeAttachments(capacityWidth, capacityHeight);
+		}
+		this.width = width;
+		this.height = height;
+	}
+
+	// Reallocates the storage of attachments beyond the color texture
+	protected void resizeAttachments(int capacityWidth, int capacityHeight) {}
+
+	private static int toCapacity(int size) {
+		return Math.max(CAPACITY_STEP, (size + CAPACITY_STEP - 1) / CAPACITY_STEP * CAPACITY_STEP);
 	}
 
 	public void bindTexture(int index) {
@@ -98,13 +186,30 @@ public abstract class Framebuffer {
 
 	public void drawToScreen() {
 		SCREEN_SHADER.use();
-		SCREEN_SHADER.setInt("u_Texture", 0);
+		SCREEN_SHADER.setSampler(TEXTURE_UNIFORM, 0);
+		SCREEN_SHADER.setFloat2(UV_SCALE_UNIFORM, (float) width / capacityWidth, (float) height / capacityHeight);
+		bindTexture(0);
+		Mesh.UNIT_2D_MESH.draw();
+	}
+
+	// Stretches over the viewport and sharpens, for images rendered below screen resolution.
+	// Sharpness around 0.1 to 0.3 restores most of the detail lost to the upscale.
+	public void drawToScreen(float sharpness) {
+		if (sharpness <= 0) {
+			drawToScreen();
+			return;
+		}
+		SHARPEN_SHADER.use();
+		SHARPEN_SHADER.setSampler(SHARPEN_TEXTURE_UNIFORM, 0);
+		SHARPEN_SHADER.setFloat2(SHARPEN_UV_SCALE_UNIFORM, (float) width / capacityWidth, (float) height / capacityHeight);
+		SHARPEN_SHADER.setFloat2(SHARPEN_TEXEL_UNIFORM, 1f / capacityWidth, 1f / capacityHeight);
+		SHARPEN_SHADER.setFloat(SHARPNESS_UNIFORM, sharpness);
 		bindTexture(0);
 		Mesh.UNIT_2D_MESH.draw();
 	}
 
 	public void delete() {
-		glDeleteFramebuffers(framebufferId);
+		GLState.deleteFramebuffer(framebufferId);
 		frameImage.delete();
 	}
 
@@ -112,6 +217,16 @@ public abstract class Framebuffer {
 		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
 	}
 
+	// Fills a rectangle of the bound framebuffer with a solid color, needing no shader or mesh
+	public static void fillRect(int x, int y, int width, int height, float r, float g, float b) {
+		glEnable(GL_SCISSOR_TEST);
+		glScissor(x, y, width, height);
+		glClearColor(r, g, b, 1);
+		glClear(GL_COLOR_BUFFER_BIT);
+		glClearColor(clearColor.x(), clearColor.y(), clearColor.z(), clearColor.w());
+		glDisable(GL_SCISSOR_TEST);
+	}
+
 	protected final int getWidth() {
 		return width;
 	}
@@ -119,4 +234,12 @@ public abstract class Framebuffer {
 	protected final int getHeight() {
 		return height;
 	}
+
+	protected final int getCapacityWidth() {
+		return capacityWidth;
+	}
+
+	protected final int getCapacityHeight() {
+		return capacityHeight;
+	}
 }
@@ -0,0 +1,181 @@
+package com.crossly.engine.graphics;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Shadows the GL state the engine changes most often and drops calls that would set what is
+// already set. All binds of programs, vertex arrays, framebuffers and textures go through here so
+// the shadow never goes stale. Deleting through here also forgets the object's bindings, as GL
+// reverts them to 0 and may hand the name out again.
+public final class GLState {
+
+	private static final int TEXTURE_UNITS = 32;
+
+	private static int program = 0;
+	private static int vertexArray = 0;
+	private static int drawFramebuffer = 0;
+	private static int readFramebuffer = 0;
+	private static int activeUnit = 0;
+	private static final int[] textures = new int[TEXTURE_UNITS];
+	private static boolean blend = false;
+	private static boolean depthTest = false;
+	private static boolean depthMask = true;
+	private static int blendSource = GL_ONE;
+	private static int blendDestination = GL_ZERO;
+	// Unknown until first set, the window sizes it at creation
+	private static final int[] viewport = { -1, -1, -1, -1 };
+
+	private static int skippedCalls = 0;
+	private static int skippedLastFrame = 0;
+
+	private GLState() {}
+
+	public static void useProgram(int program) {
+		if (GLState.program == program) {
+			skipped();
+			return;
+		}
+		glUseProgram(program);
+		GLState.program = program;
+	}
+
+	public static void bindVertexArray(int vertexArray) {
+		if (GLState.vertexArray == vertexArray) {
+			skipped();
+			return;
+		}
+		glBindVertexArray(vertexArray);
+		GLState.vertexArray = vertexArray;
+	}
+
+	// GL_FRAMEBUFFER binds both the draw and the read target
+	public static void bindFramebuffer(int target, int framebuffer) {
+		boolean draw = target != GL_READ_FRAMEBUFFER && drawFramebuffer != framebuffer;
+		boolean read = target != GL_DRAW_FRAMEBUFFER && readFramebuffer != framebuffer;
+		if (target == GL_FRAMEBUFFER && draw != read)
+			target = draw ? GL_DRAW_FRAMEBUFFER : GL_READ_FRAMEBUFFER;
+		else if (!draw && !read) {
+			skipped();
+			return;
+		}
+		glBindFramebuffer(target, framebuffer);
+		if (draw)
+			drawFramebuffer = framebuffer;
+		if (read)
+			readFramebuffer = framebuffer;
+	}
+
+	public static void bindTexture(int unit, int texture) {
+		if (unit < TEXTURE_UNITS && textures[unit] == texture) {
+			skipped();
+			return;
+		}
+		activeTexture(unit);
+		glBindTexture(GL_TEXTURE_2D, texture);
+		if (unit < TEXTURE_UNITS)
+			textures[unit] = texture;
+	}
+
+	// Binds to whichever unit is active, for setting a texture up rather than sampling it
+	public static void bindTexture(int texture) {
+		bindTexture(activeUnit, texture);
+	}
+
+	private static void activeTexture(int unit) {
+		if (activeUnit == unit)
+			return;
+		glActiveTexture(GL_TEXTURE0 + unit);
+		activeUnit = unit;
+	}
+
+	public static void setBlend(boolean enabled) {
+		blend = setCapability(GL_BLEND, blend, enabled);
+	}
+
+	public static void setDepthTest(boolean enabled) {
+		depthTest = setCapability(GL_DEPTH_TEST, depthTest, enabled);
+	}
+
+	private static boolean setCapability(int capability, boolean current, boolean enabled) {
+		if (current == enabled)
+			skipped();
+		else if (enabled)
+			glEnable(capability);
+		else
+			glDisable(capability);
+		return enabled;
+	}
+
+	public static void setDepthMask(boolean enabled) {
+		if (depthMask == enabled) {
+			skipped();
+			return;
+		}
+		glDepthMask(enabled);
+		depthMask = enabled;
+	}
+
+	public static void setBlendFunc(int source, int destination) {
+		if (blendSource == source && blendDestination == destination) {
+			skipped();
+			return;
+		}
+		glBlendFunc(source, destination);
+		blendSource = source;
+		blendDestination = destination;
+	}
+
+	public static void setViewport(int x, int y, int width, int height) {
+		if (viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+			skipped();
+			return;
+		}
+		glViewport(x, y, width, height);
+		viewport[0] = x;
+		viewport[1] = y;
+		viewport[2] = width;
+		viewport[3] = height;
+	}
+
+	public static void deleteProgram(int program) {
+		glDeleteProgram(program);
+		if (GLState.program == program)
+			GLState.program = 0;
+	}
+
+	public static void deleteVertexArray(int vertexArray) {
+		glDeleteVertexArrays(vertexArray);
+		if (GLState.vertexArray == vertexArray)
+			GLState.vertexArray = 0;
+	}
+
+	public static void deleteFramebuffer(int framebuffer) {
+		glDeleteFramebuffers(framebuffer);
+		if (drawFramebuffer == framebuffer)
+			drawFramebuffer = 0;
+		if (readFramebuffer == framebuffer)
+			readFramebuffer = 0;
+	}
+
+	public static void deleteTexture(int texture) {
+		glDeleteTextures(texture);
+		for (int unit = 0; unit < TEXTURE_UNITS; unit++) {
+			if (textures[unit] == texture)
+				textures[unit] = 0;
+		}
+	}
+
+	static void skipped() {
+		skippedCalls++;
+	}
+
+	// Called once per presented frame by the engine loop
+	public static void endFrame() {
+		skippedLastFrame = skippedCalls;
+		skippedCalls = 0;
+	}
+
+	// Redundant calls dropped during the last frame
+	public static int getSkippedCalls() {
+		return skippedLastFrame;
+	}
+}
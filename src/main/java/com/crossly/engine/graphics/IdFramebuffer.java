@@ -9,21 +9,18 @@ public class IdFramebuffer extends Framebuffer {
 
 	public IdFramebuffer(int width, int height) {
 		super(width, height);
-		idRenderBuffer = new Renderbuffer(width, height, GL_R32I);
+		idRenderBuffer = new Renderbuffer(getCapacityWidth(), getCapacityHeight(), GL_R32I);
 		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_RENDERBUFFER, idRenderBuffer.renderbufferId);
-		depthStencilBuffer = new Renderbuffer(width, height, GL_DEPTH24_STENCIL8);
+		depthStencilBuffer = new Renderbuffer(getCapacityWidth(), getCapacityHeight(), GL_DEPTH24_STENCIL8);
 		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthStencilBuffer.renderbufferId);
+		// Draw buffers are framebuffer state, set once rather than on every bind
+		glDrawBuffers(new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1});
 		checkStatus();
 		unbind();
 	}
 
-	public void bind() {
-		super.bind();
-		glDrawBuffers(new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1});
-	}
-
 	public void clearData() {
-		glBindFramebuffer(GL_FRAMEBUFFER, framebufferId);
+		bind();
 		clearData(-1);
 	}
 
@@ -31,6 +28,12 @@ public class IdFramebuffer extends Framebuffer {
 		glClearBufferiv(GL_COLOR, 1, new int[]{value});
 	}
 
+	@Override
+	protected void resizeAttachments(int capacityWidth, int capacityHeight) {
+		idRenderBuffer.resize(capacityWidth, capacityHeight);
+		depthStencilBuffer.resize(capacityWidth, capacityHeight);
+	}
+
 	public void delete() {
 		super.delete();
 		idRenderBuffer.delete();
@@ -41,10 +44,10 @@ public class IdFramebuffer extends Framebuffer {
 			return -1;
 		}
 		int[] data = new int[1];
-		glBindFramebuffer(GL_READ_FRAMEBUFFER, framebufferId);
+		GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, framebufferId);
 		glReadBuffer(GL_COLOR_ATTACHMENT1);
 		glReadPixels(x, y, 1, 1, GL_RED_INTEGER, GL_INT, data);
-		glBindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+		GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
 		return data[0];
 	}
 }
@@ -9,28 +9,40 @@ import static org.lwjgl.stb.STBImage.*;
 
 public class ImageTexture extends Texture {
 
+	// Decoded pixels waiting for upload, freed by the constructor
+	public record Image(int width, int height, int channels, ByteBuffer data) {}
+
 	public ImageTexture(String filepath, boolean flip, boolean pixelated) {
+		this(decode(filepath, flip), pixelated);
+	}
+
+	public ImageTexture(Image image, boolean pixelated) {
 		super();
-		int[] width = new int[1];
-		int[] height = new int[1];
-		int[] channels = new int[1];
-		stbi_set_flip_vertically_on_load(flip);
-		ByteBuffer data = stbi_load(Engine.getAbsolutePath(filepath), width, height, channels, 0);
-		if (data == null)
-			throw new RuntimeException("Image loading failed\n" + stbi_failure_reason());
-		super.width = width[0];
-		super.height = height[0];
-		glBindTexture(GL_TEXTURE_2D, textureId);
+		super.width = image.width();
+		super.height = image.height();
+		GLState.bindTexture(textureId);
 		int format = GL_RGBA;
-		switch (channels[0]) {
+		switch (image.channels()) {
 			case 1 -> format = GL_RED;
 			case 2 -> format = GL_RG;
 			case 3 -> format = GL_RGB;
 		}
-		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, super.width, super.height, 0, format, GL_UNSIGNED_BYTE, data);
-		stbi_image_free(data);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, super.width, super.height, 0, format, GL_UNSIGNED_BYTE, image.data());
+		stbi_image_free(image.data());
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, pixelated ? GL_NEAREST : GL_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, pixelated ? GL_NEAREST : GL_LINEAR);
 		glGenerateMipmap(GL_TEXTURE_2D);
 	}
+
+	// Needs no GL, so it can run on an asset loader worker. The flip setting is per thread.
+	public static Image decode(String filepath, boolean flip) {
+		int[] width = new int[1];
+		int[] height = new int[1];
+		int[] channels = new int[1];
+		stbi_set_flip_vertically_on_load_thread(flip ? 1 : 0);
+		ByteBuffer data = stbi_load_from_memory(Engine.readAsset(filepath), width, height, channels, 0);
+		if (data == null)
+			throw new RuntimeException("Image loading failed\n" + stbi_failure_reason());
+		return new Image(width[0], height[0], channels[0], data);
+	}
 }
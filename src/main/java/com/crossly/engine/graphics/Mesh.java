@@ -1,77 +1,130 @@
 package com.crossly.engine.graphics;
 
 import org.lwjgl.opengl.GL33;
+import org.lwjgl.system.MemoryUtil;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 
 import static org.lwjgl.opengl.GL33.*;
 
 public class Mesh {
 
-	public static final Mesh UNIT_2D_MESH = new Mesh(
+	public static final Mesh UNIT_2D_MESH = createUnit2DMesh();
+
+	private final int vertexArrayId;
+	private final ArrayList<Integer> buffers = new ArrayList<>();
+	private final int count;
+	private final int indexType;
+	private final long byteSize;
+
+	// A separate quad for users that attach their own instance attributes to its vertex array
+	public static Mesh createUnit2DMesh() {
+		return new Mesh(
 			new float[] {
-					-1f,  1f,
-					-1f, -1f,
-					 1f, -1f,
-					 1f,  1f,
+				-1f,  1f,
+				-1f, -1f,
+				 1f, -1f,
+				 1f,  1f,
 			},
 			new float[] {
-					0f, 1f,
-					0f, 0f,
-					1f, 0f,
-					1f, 1f,
+				0f, 1f,
+				0f, 0f,
+				1f, 0f,
+				1f, 1f,
 			},
 			null,
 			new int[] {
-					0, 1, 2,
-					2, 3, 0,
+				0, 1, 2,
+				2, 3, 0,
 			},
 			false
-	);
-
-	private final int vertexArrayId;
-	private final ArrayList<Integer> buffers = new ArrayList<>();
-	private final int count;
+		);
+	}
 
+	// Interleaves the arrays into one buffer, with 16 bit indices when every vertex fits
 	public Mesh(float[] positionData, float[] textureCoordinateData, float[] normalData, int[] indicesData, boolean is3D) {
-		count = indicesData.length;
+		this(interleave(positionData, textureCoordinateData, normalData, is3D),
+			VertexLayout.of(is3D, textureCoordinateData != null && textureCoordinateData.length > 0, normalData != null && normalData.length > 0),
+			narrow(indicesData, positionData.length / (is3D ? 3 : 2)),
+			positionData.length / (is3D ? 3 : 2) <= 0x10000, true);
+	}
+
+	// One interleaved buffer in the given layout with 16 or 32 bit indices. The buffers are only
+	// read during construction.
+	public Mesh(ByteBuffer vertices, VertexLayout layout, ByteBuffer indices, boolean shortIndices) {
+		this(vertices, layout, indices, shortIndices, false);
+	}
+
+	private Mesh(ByteBuffer vertices, VertexLayout layout, ByteBuffer indices, boolean shortIndices, boolean freeBuffers) {
+		indexType = shortIndices ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+		count = indices.remaining() / (shortIndices ? Short.BYTES : Integer.BYTES);
+		byteSize = vertices.remaining() + indices.remaining();
 		vertexArrayId = glGenVertexArrays();
-		glBindVertexArray(vertexArrayId);
+		GLState.bindVertexArray(vertexArrayId);
 		int vbo = glGenBuffers();
 		glBindBuffer(GL_ARRAY_BUFFER, vbo);
-		glBufferData(GL_ARRAY_BUFFER, positionData, GL_STATIC_DRAW);
-		glVertexAttribPointer(0, is3D ? 3 : 2, GL_FLOAT, false, 0, 0L);
-		glEnableVertexAttribArray(0);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+		layout.apply();
 		buffers.add(vbo);
-		if (textureCoordinateData != null && textureCoordinateData.length > 0) {
-			vbo = glGenBuffers();
-			glBindBuffer(GL_ARRAY_BUFFER, vbo);
-			glBufferData(GL_ARRAY_BUFFER, textureCoordinateData, GL_STATIC_DRAW);
-			glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0L);
-			glEnableVertexAttribArray(1);
-			buffers.add(vbo);
-		}
-		if (normalData != null && normalData.length > 0) {
-			vbo = glGenBuffers();
-			glBindBuffer(GL_ARRAY_BUFFER, vbo);
-			glBufferData(GL_ARRAY_BUFFER, normalData, GL_STATIC_DRAW);
-			glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0L);
-			glEnableVertexAttribArray(2);
-			buffers.add(vbo);
-		}
 		int ebo = glGenBuffers();
 		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
-		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesData, GL_STATIC_DRAW);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
 		buffers.add(ebo);
+		if (freeBuffers) {
+			MemoryUtil.memFree(vertices);
+			MemoryUtil.memFree(indices);
+		}
+	}
+
+	private static ByteBuffer interleave(float[] positionData, float[] textureCoordinateData, float[] normalData, boolean is3D) {
+		int positionSize = is3D ? 3 : 2;
+		int vertexCount = positionData.length / positionSize;
+		boolean hasTextureCoordinates = textureCoordinateData != null && textureCoordinateData.length > 0;
+		boolean hasNormals = normalData != null && normalData.length > 0;
+		FloatBuffer vertices = MemoryUtil.memAllocFloat(vertexCount * (positionSize + (hasTextureCoordinates ? 2 : 0) + (hasNormals ? 3 : 0)));
+		for (int i = 0; i < vertexCount; i++) {
+			vertices.put(positionData, i * positionSize, positionSize);
+			if (hasTextureCoordinates)
+				vertices.put(textureCoordinateData, i * 2, 2);
+			if (hasNormals)
+				vertices.put(normalData, i * 3, 3);
+		}
+		return MemoryUtil.memByteBuffer(vertices.flip());
+	}
+
+	private static ByteBuffer narrow(int[] indicesData, int vertexCount) {
+		if (vertexCount > 0x10000)
+			return MemoryUtil.memByteBuffer(MemoryUtil.memAllocInt(indicesData.length).put(indicesData).flip());
+		ShortBuffer indices = MemoryUtil.memAllocShort(indicesData.length);
+		for (int index : indicesData)
+			indices.put((short) index);
+		return MemoryUtil.memByteBuffer(indices.flip());
 	}
 
 	public void draw() {
-		glBindVertexArray(vertexArrayId);
-		glDrawElements(GL_TRIANGLES, count, GL_UNSIGNED_INT, 0L);
+		GLState.bindVertexArray(vertexArrayId);
+		glDrawElements(GL_TRIANGLES, count, indexType, 0L);
+	}
+
+	public void drawInstanced(int instances) {
+		GLState.bindVertexArray(vertexArrayId);
+		glDrawElementsInstanced(GL_TRIANGLES, count, indexType, 0L, instances);
+	}
+
+	// Bytes of vertex and index data uploaded
+	public long getByteSize() {
+		return byteSize;
+	}
+
+	void bind() {
+		GLState.bindVertexArray(vertexArrayId);
 	}
 
 	public void delete() {
 		buffers.forEach(GL33::glDeleteBuffers);
-		glDeleteVertexArrays(vertexArrayId);
+		GLState.deleteVertexArray(vertexArrayId);
 	}
 }
@@ -0,0 +1,134 @@
+package com.crossly.engine.graphics;
+
+import org.joml.Vector3f;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiled form of an imported model: per mesh the interleaved vertex data and indices exactly as
+// uploaded to GL, plus the texture paths and the model bounds. Reading maps the file and hands out
+// slices of the mapping, so loading is a header walk and the uploads. The source file's size and
+// modification time are stored so a changed source is imported again.
+//
+// Layout, little endian: magic, version, source size, source modified, bounds min and max, mesh
+// count, then per mesh vertex count, index count, whether indices are 16 bit, the attribute count
+// and each attribute's location, components, type and normalized flag, the three texture paths as
+// length prefixed UTF-8, and the vertex and index bytes each padded to 4 bytes.
+final class MeshFile {
+
+	// Vertex data of one mesh in the given layout
+	record MeshData(ByteBuffer vertices, int vertexCount, VertexLayout layout, ByteBuffer indices, int indexCount,
+					boolean shortIndices, String diffuseTexture, String specularTexture, String ambientTexture) {}
+
+	record Contents(List<MeshData> meshes, Vector3f boundsMin, Vector3f boundsMax) {}
+
+	private static final int MAGIC = 0x4D534831;
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 24;
+
+	private MeshFile() {}
+
+	// Null when the file is missing, stale or unreadable. The header is checked with a plain read
+	// before mapping, as a stale file is replaced next and a live mapping would block that on Windows.
+	static Contents read(Path file, long sourceSize, long sourceModified) {
+		if (!Files.isRegularFile(file) || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+			return null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					break;
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION ||
+					header.getLong() != sourceSize || header.getLong() != sourceModified)
+				return null;
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			data.position(HEADER_BYTES);
+			Vector3f boundsMin = new Vector3f(data.getFloat(), data.getFloat(), data.getFloat());
+			Vector3f boundsMax = new Vector3f(data.getFloat(), data.getFloat(), data.getFloat());
+			int meshCount = data.getInt();
+			List<MeshData> meshes = new ArrayList<>(meshCount);
+			for (int i = 0; i < meshCount; i++) {
+				int vertexCount = data.getInt(), indexCount = data.getInt();
+				boolean shortIndices = data.getInt() != 0;
+				var attributes = new VertexLayout.Attribute[data.getInt()];
+				for (int j = 0; j < attributes.length; j++)
+					attributes[j] = new VertexLayout.Attribute(data.getInt(), data.getInt(), data.getInt(), data.getInt() != 0);
+				var layout = new VertexLayout(attributes);
+				String diffuse = getString(data), specular = getString(data), ambient = getString(data);
+				data.position((data.position() + 3) & ~3);
+				ByteBuffer vertices = slice(data, vertexCount * layout.getStride());
+				ByteBuffer indices = slice(data, indexCount * (shortIndices ? Short.BYTES : Integer.BYTES));
+				meshes.add(new MeshData(vertices, vertexCount, layout, indices, indexCount, shortIndices, diffuse, specular, ambient));
+			}
+			return new Contents(meshes, boundsMin, boundsMax);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Ignoring unreadable mesh cache '" + file + "': " + e.getMessage());
+			return null;
+		}
+	}
+
+	static void write(Path file, long sourceSize, long sourceModified, List<MeshData> meshes, Vector3f boundsMin, Vector3f boundsMax) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(52).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified)
+					.putFloat(boundsMin.x).putFloat(boundsMin.y).putFloat(boundsMin.z)
+					.putFloat(boundsMax.x).putFloat(boundsMax.y).putFloat(boundsMax.z)
+					.putInt(meshes.size());
+			writeFully(channel, header.flip());
+			for (var mesh : meshes) {
+				byte[][] paths = { bytes(mesh.diffuseTexture()), bytes(mesh.specularTexture()), bytes(mesh.ambientTexture()) };
+				var attributes = mesh.layout().getAttributes();
+				ByteBuffer meshHeader = ByteBuffer.allocate(16 + 16 * attributes.size() + 12 + paths[0].length + paths[1].length + paths[2].length)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				meshHeader.putInt(mesh.vertexCount()).putInt(mesh.indexCount()).putInt(mesh.shortIndices() ? 1 : 0).putInt(attributes.size());
+				for (var attribute : attributes)
+					meshHeader.putInt(attribute.location()).putInt(attribute.components()).putInt(attribute.type()).putInt(attribute.normalized() ? 1 : 0);
+				for (var path : paths)
+					meshHeader.putInt(path.length).put(path);
+				writeFully(channel, meshHeader.flip());
+				writeFully(channel, mesh.vertices().duplicate());
+				writeFully(channel, mesh.indices().duplicate());
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Sections start on 4 byte boundaries so the floats and indices stay aligned in the mapping
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		int length = buffer.remaining();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		int padding = -length & 3;
+		if (padding > 0)
+			channel.write(ByteBuffer.allocate(padding));
+	}
+
+	private static ByteBuffer slice(ByteBuffer data, int length) {
+		ByteBuffer slice = data.slice(data.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+		data.position(data.position() + ((length + 3) & ~3));
+		return slice;
+	}
+
+	private static String getString(ByteBuffer data) {
+		int length = data.getInt();
+		byte[] bytes = new byte[length];
+		data.get(bytes);
+		return length == 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] bytes(String value) {
+		return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -1,116 +1,309 @@
 package com.crossly.engine.graphics;
 
+import com.crossly.engine.AssetPack;
 import com.crossly.engine.Engine;
+import org.joml.Vector3f;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.*;
+import org.lwjgl.system.Callback;
+import org.lwjgl.system.MemoryUtil;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Model {
 
 	private final ArrayList<TexturedMesh> meshes = new ArrayList<>();
+	// Meshes sharing a material share its textures
+	private final Map<String, ImageTexture> textures = new HashMap<>();
+	// Axis aligned bounds of every vertex in model space
+	private final Vector3f boundsMin = new Vector3f(Float.POSITIVE_INFINITY);
+	private final Vector3f boundsMax = new Vector3f(Float.NEGATIVE_INFINITY);
 
-	private String directory;
+	private static final Path MESH_CACHE_DIRECTORY = Paths.get("cache", "meshes");
 
-	public Model(String filepath) {
-		loadModel(Engine.getAbsolutePath(filepath));
-	}
+	// A model decoded without GL, so it can be built on an asset loader worker: the compiled form
+	// from cache/meshes when it matches the source file, otherwise the source imported with Assimp
+	// and compiled for the next launch, plus the decoded texture images
+	public static final class Source {
 
-	private void loadModel(String filepath) {
-		try (AIScene scene = Assimp.aiImportFile(filepath, Assimp.aiProcess_Triangulate | Assimp.aiProcess_RemoveRedundantMaterials)) {
-			if (scene == null)
-				throw new RuntimeException(Assimp.aiGetErrorString());
+		private final List<MeshFile.MeshData> meshes = new ArrayList<>();
+		private final Map<String, ImageTexture.Image> images = new HashMap<>();
+		private final Vector3f boundsMin = new Vector3f(Float.POSITIVE_INFINITY);
+		private final Vector3f boundsMax = new Vector3f(Float.NEGATIVE_INFINITY);
+		// Imported vertex data lives in allocations freed after upload, cached data in a mapping
+		private boolean ownsBuffers = false;
+		private String directory;
 
-			AINode node;
-			if (scene.mFlags() == Assimp.AI_SCENE_FLAGS_INCOMPLETE || (node = scene.mRootNode()) == null)
-				throw new RuntimeException(Assimp.aiGetErrorString());
+		public Source(String filepath) {
+			// A packed model is imported from the pack, which stands in for its modification time
+			AssetPack pack = Engine.getAssetPack();
+			if (pack != null && !pack.contains(filepath))
+				pack = null;
+			String path = pack != null ? filepath : Engine.getAbsolutePath(filepath);
+			Path source = Paths.get(path);
+			long sourceSize, sourceModified;
+			if (pack != null) {
+				sourceSize = pack.getSize(filepath);
+				sourceModified = pack.getModified();
+			} else {
+				try {
+					sourceSize = Files.size(source);
+					sourceModified = Files.getLastModifiedTime(source).toMillis();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			Path compiled = MESH_CACHE_DIRECTORY.resolve(String.format("%s-%08x.mesh", source.getFileName(), path.hashCode()));
+			var contents = MeshFile.read(compiled, sourceSize, sourceModified);
+			if (contents != null) {
+				boundsMin.set(contents.boundsMin());
+				boundsMax.set(contents.boundsMax());
+				meshes.addAll(contents.meshes());
+			} else {
+				ownsBuffers = true;
+				loadModel(path, pack, meshes);
+				try {
+					MeshFile.write(compiled, sourceSize, sourceModified, meshes, boundsMin, boundsMax);
+				} catch (IOException e) {
+					System.err.println("Could not write mesh cache '" + compiled + "': " + e.getMessage());
+				}
+			}
+			for (var data : meshes) {
+				for (var texturePath : new String[] { data.diffuseTexture(), data.specularTexture(), data.ambientTexture() }) {
+					if (texturePath != null && !images.containsKey(texturePath))
+						images.put(texturePath, ImageTexture.decode(texturePath, true));
+				}
+			}
+		}
 
-			if (filepath.contains("/"))
-				directory = filepath.substring(0, filepath.lastIndexOf("/"));
-			if (filepath.contains("\\"))
-				directory = filepath.substring(0, filepath.lastIndexOf("\\"));
+		private void loadModel(String filepath, AssetPack pack, List<MeshFile.MeshData> imported) {
+			int flags = Assimp.aiProcess_Triangulate | Assimp.aiProcess_RemoveRedundantMaterials;
+			try (AIScene scene = pack != null ? importPacked(filepath, pack, flags) : Assimp.aiImportFile(filepath, flags)) {
+				if (scene == null)
+					throw new RuntimeException(Assimp.aiGetErrorString());
 
-			processNode(node, scene);
-		}
-	}
+				AINode node;
+				if (scene.mFlags() == Assimp.AI_SCENE_FLAGS_INCOMPLETE || (node = scene.mRootNode()) == null)
+					throw new RuntimeException(Assimp.aiGetErrorString());
 
-	private void processNode(AINode node, AIScene scene) {
-		for (int i = 0; i < node.mNumMeshes(); i++) {
-			AIMesh mesh = AIMesh.create(scene.mMeshes().get(node.mMeshes().get(i)));
-			this.meshes.add(processMesh(mesh, scene));
-		}
-		for (int i = 0; i < node.mNumChildren(); i++) {
-			processNode(AINode.create(node.mChildren().get(i)), scene);
+				if (filepath.contains("/"))
+					directory = filepath.substring(0, filepath.lastIndexOf("/"));
+				if (filepath.contains("\\"))
+					directory = filepath.substring(0, filepath.lastIndexOf("\\"));
+
+				processNode(node, scene, imported);
+			}
 		}
-	}
 
-	private TexturedMesh processMesh(AIMesh mesh, AIScene scene) {
-		float[] posData = new float[mesh.mNumVertices() * 3];
-		float[] cordData = new float[mesh.mNumVertices() * 2];
-		AIVector3D.Buffer cordBuffer = mesh.mTextureCoords(0);
-		float[] normData = new float[mesh.mNumVertices() * 3];
-		AIVector3D.Buffer normBuffer = mesh.mNormals();
-		for (int i = 0; i < mesh.mNumVertices(); i++) {
-			AIVector3D pos = mesh.mVertices().get(i);
-			posData[i * 3] = pos.x();
-			posData[1+i*3] = pos.y();
-			posData[2+i*3] = pos.z();
-			if (cordBuffer == null) {
-				cordData = null;
-			} else {
-				cordData[i * 2] = cordBuffer.get(i).x();
-				cordData[1+i*2] = cordBuffer.get(i).y();
+		private void processNode(AINode node, AIScene scene, List<MeshFile.MeshData> imported) {
+			for (int i = 0; i < node.mNumMeshes(); i++) {
+				AIMesh mesh = AIMesh.create(scene.mMeshes().get(node.mMeshes().get(i)));
+				imported.add(processMesh(mesh, scene));
 			}
-			if (normBuffer == null) {
-				normData = null;
-			} else {
-				normData[i * 3] = normBuffer.get(i).x();
-				normData[1+i*3] = normBuffer.get(i).y();
-				normData[2+i*3] = normBuffer.get(i).z();
+			for (int i = 0; i < node.mNumChildren(); i++) {
+				processNode(AINode.create(node.mChildren().get(i)), scene, imported);
 			}
 		}
-		ArrayList<Integer> indicesData = new ArrayList<>();
-		for (int i = 0; i < mesh.mNumFaces(); i++) {
-			AIFace face = mesh.mFaces().get(i);
-			for (int j = 0; j < face.mNumIndices(); j++) {
-				indicesData.add(face.mIndices().get(j));
+
+		// Reorders the triangles for the post transform cache and the vertices for fetch order, then
+		// interleaves them with packed normals and narrows the indices when they fit in 16 bits
+		private MeshFile.MeshData processMesh(AIMesh mesh, AIScene scene) {
+			AIVector3D.Buffer positions = mesh.mVertices();
+			AIVector3D.Buffer cordBuffer = mesh.mTextureCoords(0);
+			AIVector3D.Buffer normBuffer = mesh.mNormals();
+			int indexCount = 0;
+			for (int i = 0; i < mesh.mNumFaces(); i++)
+				indexCount += mesh.mFaces().get(i).mNumIndices();
+			int[] triangles = new int[indexCount];
+			for (int i = 0, n = 0; i < mesh.mNumFaces(); i++) {
+				IntBuffer face = mesh.mFaces().get(i).mIndices();
+				while (face.hasRemaining())
+					triangles[n++] = face.get();
+			}
+			VertexCacheOptimizer.optimizeTriangles(triangles, mesh.mNumVertices());
+			int[] order = VertexCacheOptimizer.optimizeVertexFetch(triangles, mesh.mNumVertices());
+			int vertexCount = order.length;
+
+			VertexLayout layout = createLayout(cordBuffer != null, normBuffer != null);
+			ByteBuffer vertices = MemoryUtil.memAlloc(vertexCount * layout.getStride());
+			for (int i = 0; i < vertexCount; i++) {
+				int source = order[i];
+				vertices.position(i * layout.getStride());
+				AIVector3D pos = positions.get(source);
+				vertices.putFloat(pos.x()).putFloat(pos.y()).putFloat(pos.z());
+				boundsMin.set(Math.min(boundsMin.x, pos.x()), Math.min(boundsMin.y, pos.y()), Math.min(boundsMin.z, pos.z()));
+				boundsMax.set(Math.max(boundsMax.x, pos.x()), Math.max(boundsMax.y, pos.y()), Math.max(boundsMax.z, pos.z()));
+				if (cordBuffer != null)
+					vertices.putFloat(cordBuffer.get(source).x()).putFloat(cordBuffer.get(source).y());
+				if (normBuffer != null) {
+					AIVector3D normal = normBuffer.get(source);
+					vertices.putInt(VertexLayout.packNormal(normal.x(), normal.y(), normal.z()));
+				}
 			}
+			vertices.clear();
+			boolean shortIndices = vertexCount <= 0x10000;
+			ByteBuffer indices = MemoryUtil.memAlloc(indexCount * (shortIndices ? Short.BYTES : Integer.BYTES));
+			for (int index : triangles) {
+				if (shortIndices)
+					indices.putShort((short) index);
+				else
+					indices.putInt(index);
+			}
+			indices.flip();
+			String diffuseTexture = null;
+			String specularTexture = null;
+			String ambientTexture = null;
+			PointerBuffer materialPointers;
+			if (mesh.mMaterialIndex() >= 0 && (materialPointers = scene.mMaterials()) != null) {
+				AIMaterial material = AIMaterial.create(materialPointers.get(mesh.mMaterialIndex()));
+				diffuseTexture = getTexturePath(material, Assimp.aiTextureType_DIFFUSE);
+				specularTexture = getTexturePath(material, Assimp.aiTextureType_SPECULAR);
+				ambientTexture = getTexturePath(material, Assimp.aiTextureType_AMBIENT);
+			}
+			return new MeshFile.MeshData(vertices, vertexCount, layout, indices, indexCount, shortIndices,
+					diffuseTexture, specularTexture, ambientTexture);
+		}
+
+		// Position and texture coordinate stay floats, the normal packs into 4 bytes instead of 12
+		private static VertexLayout createLayout(boolean hasTextureCoordinates, boolean hasNormals) {
+			var position = VertexLayout.Attribute.floats(0, 3);
+			var textureCoordinate = VertexLayout.Attribute.floats(1, 2);
+			var normal = VertexLayout.Attribute.packedNormal(2);
+			if (hasTextureCoordinates && hasNormals)
+				return new VertexLayout(position, textureCoordinate, normal);
+			if (hasTextureCoordinates)
+				return new VertexLayout(position, textureCoordinate);
+			if (hasNormals)
+				return new VertexLayout(position, normal);
+			return new VertexLayout(position);
 		}
-		int[] indices = new int[indicesData.size()];
-		for (int i = 0; i < indicesData.size(); i++) {
-			indices[i] = indicesData.get(i);
+
+		private String getTexturePath(AIMaterial material, int type) {
+			try (AIString path = AIString.calloc()) {
+				Assimp.aiGetMaterialTexture(material, type, 0, path, (IntBuffer) null, null, null, null, null, null);
+				String source;
+				if (!(source = path.dataString().trim()).isEmpty())
+					return directory + '/' + source + ".png";
+				return null;
+			}
 		}
-		ImageTexture diffuseTexture = null;
-		ImageTexture specularTexture = null;
-		ImageTexture ambientTexture = null;
-		PointerBuffer materialPointers;
-		if (mesh.mMaterialIndex() >= 0 && (materialPointers = scene.mMaterials()) != null) {
-			AIMaterial material = AIMaterial.create(materialPointers.get(mesh.mMaterialIndex()));
-			diffuseTexture = loadTexture(material, Assimp.aiTextureType_DIFFUSE);
-			specularTexture = loadTexture(material, Assimp.aiTextureType_SPECULAR);
-			ambientTexture = loadTexture(material, Assimp.aiTextureType_AMBIENT);
+
+		// Serves Assimp's reads of the model and its material files from the pack
+		private static AIScene importPacked(String filepath, AssetPack pack, int flags) {
+			Map<Long, ByteBuffer> files = new HashMap<>();
+			AIFileReadProc read = AIFileReadProc.create((file, buffer, size, count) -> {
+				ByteBuffer data = files.get(file);
+				long items = size == 0 ? 0 : Math.min(count, data.remaining() / size);
+				MemoryUtil.memCopy(MemoryUtil.memAddress(data), buffer, items * size);
+				data.position(data.position() + (int) (items * size));
+				return items;
+			});
+			AIFileWriteProc write = AIFileWriteProc.create((file, buffer, size, count) -> 0);
+			AIFileTellProc tell = AIFileTellProc.create(file -> files.get(file).position());
+			AIFileTellProc fileSize = AIFileTellProc.create(file -> files.get(file).limit());
+			AIFileSeek seek = AIFileSeek.create((file, offset, origin) -> {
+				ByteBuffer data = files.get(file);
+				long position = switch (origin) {
+					case Assimp.aiOrigin_CUR -> data.position() + offset;
+					case Assimp.aiOrigin_END -> data.limit() + offset;
+					default -> offset;
+				};
+				if (position < 0 || position > data.limit())
+					return Assimp.aiReturn_FAILURE;
+				data.position((int) position);
+				return Assimp.aiReturn_SUCCESS;
+			});
+			AIFileFlushProc flush = AIFileFlushProc.create(file -> {});
+			AIFileOpenProc open = AIFileOpenProc.create((io, name, mode) -> {
+				ByteBuffer data = pack.get(MemoryUtil.memUTF8(name));
+				if (data == null)
+					return MemoryUtil.NULL;
+				AIFile file = AIFile.calloc()
+						.ReadProc(read).WriteProc(write).TellProc(tell).FileSizeProc(fileSize).SeekProc(seek).FlushProc(flush);
+				files.put(file.address(), data);
+				return file.address();
+			});
+			AIFileCloseProc close = AIFileCloseProc.create((io, file) -> {
+				files.remove(file);
+				AIFile.create(file).free();
+			});
+			try (AIFileIO io = AIFileIO.calloc().OpenProc(open).CloseProc(close)) {
+				return Assimp.aiImportFileEx(filepath, flags, io);
+			} finally {
+				for (var callback : new Callback[] { read, write, tell, fileSize, seek, flush, open, close })
+					callback.free();
+			}
 		}
-		return new TexturedMesh(new Mesh(posData, cordData, normData, indices, true), diffuseTexture, specularTexture, ambientTexture);
 	}
 
-	private ImageTexture loadTexture(AIMaterial material, int type) {
-		AIString path = AIString.calloc();
-		Assimp.aiGetMaterialTexture(material, type, 0, path, (IntBuffer) null, null, null, null, null, null);
-		String source;
-		if (!(source = path.dataString().trim()).isEmpty()) {
-			String texturePath = directory + '/' + source + ".png";
-			return new ImageTexture(texturePath, true, true);
+	public Model(String filepath) {
+		this(new Source(filepath));
+	}
+
+	public Model(Source source) {
+		boundsMin.set(source.boundsMin);
+		boundsMax.set(source.boundsMax);
+		source.images.forEach((path, image) -> textures.put(path, new ImageTexture(image, true)));
+		for (var data : source.meshes) {
+			Mesh mesh = new Mesh(data.vertices(), data.layout(), data.indices(), data.shortIndices());
+			meshes.add(new TexturedMesh(mesh, getTexture(data.diffuseTexture()), getTexture(data.specularTexture()),
+					getTexture(data.ambientTexture())));
+		}
+		if (source.ownsBuffers) {
+			for (var data : source.meshes) {
+				MemoryUtil.memFree(data.vertices());
+				MemoryUtil.memFree(data.indices());
+			}
 		}
-		return null;
+	}
+
+	private ImageTexture getTexture(String texturePath) {
+		return texturePath != null ? textures.get(texturePath) : null;
+	}
+
+	public Vector3f getBoundsMin() {
+		return new Vector3f(boundsMin);
+	}
+
+	public Vector3f getBoundsMax() {
+		return new Vector3f(boundsMax);
 	}
 
 	public void draw(Shader shader) {
 		meshes.forEach(mesh -> mesh.draw(shader));
 	}
 
+	public void drawInstanced(Shader shader, int instances) {
+		meshes.forEach(mesh -> mesh.drawInstanced(shader, instances));
+	}
+
+	// Sources the instance attributes of every mesh from the buffer
+	public void attach(InstanceBuffer instances) {
+		meshes.forEach(mesh -> instances.attach(mesh.mesh()));
+	}
+
+	// Approximate GPU memory of the vertex, index and texture data, mipmaps included
+	public long getByteSize() {
+		long size = 0;
+		for (var mesh : meshes)
+			size += mesh.mesh().getByteSize();
+		for (var texture : textures.values())
+			size += (long) texture.getWidth() * texture.getHeight() * 4 * 4 / 3;
+		return size;
+	}
+
 	public void delete() {
-		meshes.forEach(TexturedMesh::delete);
+		meshes.forEach(mesh -> mesh.mesh().delete());
+		textures.values().forEach(ImageTexture::delete);
 	}
 
 	private record TexturedMesh(
@@ -120,31 +313,27 @@ public class Model {
 			ImageTexture ambientTexture
 	) {
 		public void draw(Shader shader) {
-			if (diffuseTexture != null) {
-				diffuseTexture.bind(0);
-				shader.setInt("uMaterial.diffuse", 0);
-			}
-			if (specularTexture != null) {
-				specularTexture.bind(1);
-				shader.setInt("uMaterial.specular", 1);
-			}
-			if (ambientTexture != null) {
-				ambientTexture.bind(2);
-				shader.setInt("uMaterial.ambient", 2);
-			}
+			bindTextures(shader);
 			mesh.draw();
 		}
 
-		public void delete() {
-			mesh.delete();
+		public void drawInstanced(Shader shader, int instances) {
+			bindTextures(shader);
+			mesh.drawInstanced(instances);
+		}
+
+		private void bindTextures(Shader shader) {
 			if (diffuseTexture != null) {
-				diffuseTexture.delete();
+				diffuseTexture.bind(0);
+				shader.setSampler("uMaterial.diffuse", 0);
 			}
 			if (specularTexture != null) {
-				specularTexture.delete();
+				specularTexture.bind(1);
+				shader.setSampler("uMaterial.specular", 1);
 			}
 			if (ambientTexture != null) {
-				ambientTexture.delete();
+				ambientTexture.bind(2);
+				shader.setSampler("uMaterial.ambient", 2);
 			}
 		}
 	}
@@ -0,0 +1,125 @@
+package com.crossly.engine.graphics;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import static org.lwjgl.opengl.ARBGetProgramBinary.*;
+import static org.lwjgl.opengl.GL33.*;
+
+// Linked programs saved with glGetProgramBinary under cache/shaders, so later launches skip
+// compiling and linking. Files are named by a SHA-256 of the driver's vendor, renderer and version
+// strings and both sources, so a driver update or an edited shader misses the cache. A binary the
+// driver rejects anyway is deleted and the program is compiled as usual.
+//
+// Layout, little endian: magic, binary format, binary length, binary.
+final class ProgramCache {
+
+	private static final Path DIRECTORY = Paths.get("cache", "shaders");
+	private static final int MAGIC = 0x50524731;
+
+	private static Boolean supported = null;
+	private static String driver;
+
+	private ProgramCache() {}
+
+	// Drivers may report the extension yet offer no binary formats, as some software renderers do
+	private static boolean isSupported() {
+		if (supported == null) {
+			supported = GL.getCapabilities().GL_ARB_get_program_binary && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+			driver = glGetString(GL_VENDOR) + '\n' + glGetString(GL_RENDERER) + '\n' + glGetString(GL_VERSION);
+		}
+		return supported;
+	}
+
+	private static Path file(String vertexSource, String fragmentSource) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(driver.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(vertexSource.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(fragmentSource.getBytes(StandardCharsets.UTF_8));
+			return DIRECTORY.resolve(HexFormat.of().formatHex(digest.digest()) + ".bin");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	// Loads the cached binary into the program, false when there is none or the driver refused it
+	static boolean load(int program, String vertexSource, String fragmentSource) {
+		if (!isSupported())
+			return false;
+		Path file = file(vertexSource, fragmentSource);
+		if (!Files.isRegularFile(file))
+			return false;
+		// Read rather than mapped, so the file can be deleted or replaced below on Windows too
+		try {
+			byte[] bytes = Files.readAllBytes(file);
+			ByteBuffer data = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().order(ByteOrder.LITTLE_ENDIAN);
+			if (data.remaining() < 12 || data.getInt() != MAGIC)
+				throw new IOException("Not a program binary");
+			int format = data.getInt(), length = data.getInt();
+			if (length <= 0 || length > data.remaining())
+				throw new IOException("Truncated program binary");
+			glProgramBinary(program, format, data.slice(data.position(), length));
+			if (glGetProgrami(program, GL_LINK_STATUS) != 0)
+				return true;
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Ignoring unreadable program binary '" + file + "': " + e.getMessage());
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException ignored) {}
+		return false;
+	}
+
+	// Asks the driver to keep the binary retrievable, call before linking
+	static void prepare(int program) {
+		if (isSupported())
+			glProgramParameteri(program, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+	}
+
+	// Saves the linked program's binary, failures only cost the next launch a compile
+	static void store(int program, String vertexSource, String fragmentSource) {
+		if (!isSupported())
+			return;
+		int length = glGetProgrami(program, GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0)
+			return;
+		ByteBuffer data = MemoryUtil.memAlloc(12 + length).order(ByteOrder.LITTLE_ENDIAN);
+		Path file = file(vertexSource, fragmentSource);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer written = stack.mallocInt(1), format = stack.mallocInt(1);
+			glGetProgramBinary(program, written, format, data.slice(12, length));
+			data.putInt(MAGIC).putInt(format.get(0)).putInt(written.get(0));
+			data.limit(12 + written.get(0)).position(0);
+			Files.createDirectories(DIRECTORY);
+			Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (data.hasRemaining())
+					channel.write(data);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Could not write program binary '" + file + "': " + e.getMessage());
+		} finally {
+			MemoryUtil.memFree(data);
+		}
+	}
+}
@@ -4,16 +4,29 @@ import static org.lwjgl.opengl.GL33.*;
 
 public class RenderTexture extends Texture {
 
+	private final int internalFormat;
+	private final int format;
+	private final int type;
+
 	public RenderTexture(int width, int height, int internalFormat, int format, int type) {
 		super();
-		super.width = width;
-		super.height = height;
-		glBindTexture(GL_TEXTURE_2D, super.textureId);
+		this.internalFormat = internalFormat;
+		this.format = format;
+		this.type = type;
+		GLState.bindTexture(super.textureId);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+		resize(width, height);
+	}
+
+	// Replaces the storage, keeping the texture name so framebuffers it is attached to stay valid
+	public void resize(int width, int height) {
+		super.width = width;
+		super.height = height;
+		GLState.bindTexture(super.textureId);
 		glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, format, type, 0);
-		glBindTexture(GL_TEXTURE_2D, 0);
+		GLState.bindTexture(0);
 	}
 }
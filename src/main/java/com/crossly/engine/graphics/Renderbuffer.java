@@ -5,9 +5,16 @@ import static org.lwjgl.opengl.GL33.*;
 public class Renderbuffer {
 
 	protected int renderbufferId;
+	private final int internalFormat;
 
 	public Renderbuffer(int width, int height, int internalFormat) {
+		this.internalFormat = internalFormat;
 		renderbufferId = glGenRenderbuffers();
+		resize(width, height);
+	}
+
+	// Replaces the storage, keeping the name so framebuffers it is attached to stay valid
+	public void resize(int width, int height) {
 		glBindRenderbuffer(GL_RENDERBUFFER, renderbufferId);
 		glRenderbufferStorage(GL_RENDERBUFFER, internalFormat, width, height);
 	}
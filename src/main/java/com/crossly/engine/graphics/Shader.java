@@ -1,14 +1,14 @@
 package com.crossly.engine.graphics;
 
-import org.joml.Matrix4f;
+import org.joml.Matrix3fc;
+import org.joml.Matrix4fc;
 import org.joml.Vector2f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
+import org.joml.Vector3fc;
+import org.joml.Vector4fc;
 import org.lwjgl.opengl.GL33;
+import org.lwjgl.system.MemoryStack;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,23 +22,25 @@ public class Shader {
 	private final int program;
 	private final ArrayList<Integer> shaderParts = new ArrayList<>();
 	private final Map<String, Integer> uniformMap = new HashMap<>();
+	private final Map<Integer, Integer> samplerUnits = new HashMap<>();
 
+	// Reuses the program binary cached by an earlier launch when the driver accepts it
 	public Shader(String vert, String frag, boolean isFile) {
 		program = glCreateProgram();
-		int vs, fs;
-		if (isFile) {
-			vs = createShader(getSourceUnpacked(getAbsolutePath(vert), new ArrayList<>()), GL_VERTEX_SHADER);
-			fs = createShader(getSourceUnpacked(getAbsolutePath(frag), new ArrayList<>()), GL_FRAGMENT_SHADER);
-		} else {
-			vs = createShader(vert, GL_VERTEX_SHADER);
-			fs = createShader(frag, GL_FRAGMENT_SHADER);
-		}
+		String vertexSource = isFile ? getSourceUnpacked(vert, new ArrayList<>()) : vert;
+		String fragmentSource = isFile ? getSourceUnpacked(frag, new ArrayList<>()) : frag;
+		if (ProgramCache.load(program, vertexSource, fragmentSource))
+			return;
+		int vs = createShader(vertexSource, GL_VERTEX_SHADER);
+		int fs = createShader(fragmentSource, GL_FRAGMENT_SHADER);
 		glAttachShader(program, vs);
 		glAttachShader(program, fs);
 		shaderParts.add(vs);
 		shaderParts.add(fs);
+		ProgramCache.prepare(program);
 		glLinkProgram(program);
 		validate();
+		ProgramCache.store(program, vertexSource, fragmentSource);
 	}
 
 	public Shader(String vertPath, String fragPath) {
@@ -46,24 +48,54 @@ public class Shader {
 	}
 
 	public void use() {
-		glUseProgram(program);
+		GLState.useProgram(program);
 	}
 
 	public void delete() {
 		shaderParts.forEach(GL33::glDeleteShader);
-		glDeleteProgram(program);
+		GLState.deleteProgram(program);
+	}
+
+	// Resolves a uniform once so hot paths can use the location setters below instead of names
+	public int getUniform(String name) {
+		return getUniformLocation(name);
 	}
 
 	public void setInt(String name, int value) {
-		glUniform1i(getUniformLocation(name), value);
+		setInt(getUniformLocation(name), value);
+	}
+
+	public void setInt(int location, int value) {
+		glUniform1i(location, value);
+	}
+
+	public void setSampler(String name, int unit) {
+		setSampler(getUniformLocation(name), unit);
+	}
+
+	// Sampler units are program state, so they are only sent when they change
+	public void setSampler(int location, int unit) {
+		Integer current = samplerUnits.put(location, unit);
+		if (current != null && current == unit)
+			GLState.skipped();
+		else
+			setInt(location, unit);
 	}
 
 	public void setFloat(String name, float value) {
-		glUniform1f(getUniformLocation(name), value);
+		setFloat(getUniformLocation(name), value);
+	}
+
+	public void setFloat(int location, float value) {
+		glUniform1f(location, value);
 	}
 
 	public void setFloat2(String name, float x, float y) {
-		glUniform2f(getUniformLocation(name), x, y);
+		setFloat2(getUniformLocation(name), x, y);
+	}
+
+	public void setFloat2(int location, float x, float y) {
+		glUniform2f(location, x, y);
 	}
 
 	public void setFloat2(String name, Vector2f value) {
@@ -74,18 +106,50 @@ public class Shader {
 		glUniform3f(getUniformLocation(name), x, y, z);
 	}
 
-	public void setFloat3(String name, Vector3f value) {
-		setFloat3(name, value.x, value.y, value.z);
+	public void setFloat3(String name, Vector3fc value) {
+		setFloat3(getUniformLocation(name), value);
 	}
 
-	public void setFloat4(String name, Vector4f value) {
-		glUniform4f(getUniformLocation(name), value.x, value.y, value.z, value.w);
+	public void setFloat3(int location, Vector3fc value) {
+		glUniform3f(location, value.x(), value.y(), value.z());
+	}
+
+	public void setFloat4(String name, Vector4fc value) {
+		setFloat4(getUniformLocation(name), value);
+	}
+
+	public void setFloat4(int location, Vector4fc value) {
+		glUniform4f(location, value.x(), value.y(), value.z(), value.w());
+	}
+
+	public void setMatrix3(String name, Matrix3fc value) {
+		setMatrix3(getUniformLocation(name), value);
+	}
+
+	// Matrices are staged on the thread's MemoryStack rather than in a new array per call
+	public void setMatrix3(int location, Matrix3fc value) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			glUniformMatrix3fv(location, false, value.get(stack.mallocFloat(9)));
+		}
+	}
+
+	public void setMatrix4(String name, Matrix4fc value) {
+		setMatrix4(getUniformLocation(name), value);
+	}
+
+	public void setMatrix4(int location, Matrix4fc value) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			glUniformMatrix4fv(location, false, value.get(stack.mallocFloat(16)));
+		}
 	}
 
-	public void setMatrix4(String name, Matrix4f value) {
-		float[] matrix = new float[16];
-		value.get(matrix);
-		glUniformMatrix4fv(getUniformLocation(name), false, matrix);
+	// Shaders are GLSL 330 so block bindings cannot be given in the source
+	public void bindUniformBlock(String blockName, int binding) {
+		int index = glGetUniformBlockIndex(program, blockName);
+		if (index == GL_INVALID_INDEX)
+			System.out.println("uniform block '" + blockName + "' is unavailable in shader!");
+		else
+			glUniformBlockBinding(program, index, binding);
 	}
 
 	private static int createShader(String source, int type) {
@@ -98,29 +162,26 @@ public class Shader {
 		return shader;
 	}
 
+	// Includes are resolved relative to the including file, through the asset pack when it holds them
 	private static String getSourceUnpacked(String path, ArrayList<String> includedPaths) {
-		try {
-			String source = new String(Files.readAllBytes(Paths.get(path)));
-			if (!source.contains("#include"))
-				return source;
-			Scanner scn = new Scanner(source);
-			StringBuilder builder = new StringBuilder();
-			while (scn.hasNextLine()) {
-				String line = scn.nextLine().trim();
-				if (line.startsWith("#include")) {
-					String includeFile = line.substring(9).replace('"', ' ').trim();
-					if (includedPaths.contains(includeFile))
-						continue;
-					includedPaths.add(includeFile);
-					builder.append(getSourceUnpacked(path.substring(0, path.lastIndexOf('/') + 1) + includeFile, includedPaths))
-							.append('\n');
-				} else
-					builder.append(line).append('\n');
-			}
-			return builder.toString();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+		String source = StandardCharsets.UTF_8.decode(readAsset(path)).toString();
+		if (!source.contains("#include"))
+			return source;
+		Scanner scn = new Scanner(source);
+		StringBuilder builder = new StringBuilder();
+		while (scn.hasNextLine()) {
+			String line = scn.nextLine().trim();
+			if (line.startsWith("#include")) {
+				String includeFile = line.substring(9).replace('"', ' ').trim();
+				if (includedPaths.contains(includeFile))
+					continue;
+				includedPaths.add(includeFile);
+				builder.append(getSourceUnpacked(path.substring(0, path.lastIndexOf('/') + 1) + includeFile, includedPaths))
+						.append('\n');
+			} else
+				builder.append(line).append('\n');
 		}
+		return builder.toString();
 	}
 
 	private void validate() {
@@ -4,50 +4,77 @@ import org.joml.Matrix4f;
 import org.joml.Vector2f;
 import org.joml.Vector3f;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static org.lwjgl.opengl.GL33.*;
 
+// Lays a whole string out into one vertex buffer and draws it in a single call. Layouts are made
+// at the origin and cached by text and size, the position is applied in the shader. A layout is
+// first streamed through a shared buffer and gets its own static buffer when it is drawn again,
+// so unchanged text costs one draw and no layout while text that changes every frame never
+// allocates GL buffers.
 public class TextWriter {
 
+	private static final int FLOATS_PER_VERTEX = 4;
+	private static final int FLOATS_PER_GLYPH = 4 * FLOATS_PER_VERTEX;
+	private static final int MAX_CACHED_LAYOUTS = 64;
+
 	private final FontAtlas fontAtlas;
 	private Matrix4f viewMatrix;
 	private float lineHeight = 1.2f;
+	private int atlasEvictions;
+	private final Map<LayoutKey, Layout> layouts = new LinkedHashMap<>(16, .75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<LayoutKey, Layout> eldest) {
+			if (size() <= MAX_CACHED_LAYOUTS)
+				return false;
+			eldest.getValue().delete();
+			return true;
+		}
+	};
 
-	private final static int VERTEX_ARRAY_ID;
-	private final static int POS_VERTEX_BUFFER_ID;
-	private final static int TEX_VERTEX_BUFFER_ID;
+	private final static int STREAM_VERTEX_ARRAY_ID;
+	private final static int STREAM_VERTEX_BUFFER_ID;
 	private final static int ELEMENT_BUFFER_ID;
-	private final static Shader FONT_SHADER;
+	private static int elementCapacity = 0;
+	private final static String FONT_VERTEX_SOURCE = """
+			#version 330 core
+			layout (location = 0) in vec2 aPos;
+			layout (location = 1) in vec2 aTexCoord;
+			out vec2 texCoord;
+			uniform mat4 projection;
+			uniform vec2 offset;
+			void main() {
+				texCoord = aTexCoord;
+				gl_Position = projection * vec4(aPos + offset, 0., 1.);
+			}
+			""";
+	private final static Shader FONT_SHADER, SDF_FONT_SHADER;
+	private final static int PROJECTION_UNIFORM, OFFSET_UNIFORM, COLOR_UNIFORM, FONT_TEXTURE_UNIFORM;
+	private final static int SDF_PROJECTION_UNIFORM, SDF_OFFSET_UNIFORM, SDF_COLOR_UNIFORM, SDF_FONT_TEXTURE_UNIFORM;
 
 	static {
-		VERTEX_ARRAY_ID = glGenVertexArrays();
-		glBindVertexArray(VERTEX_ARRAY_ID);
-		POS_VERTEX_BUFFER_ID = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, POS_VERTEX_BUFFER_ID);
-		glBufferData(GL_ARRAY_BUFFER, 8 * Float.BYTES, GL_DYNAMIC_DRAW);
-		glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0L);
-		glEnableVertexAttribArray(0);
-		TEX_VERTEX_BUFFER_ID = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, TEX_VERTEX_BUFFER_ID);
-		glBufferData(GL_ARRAY_BUFFER, 8 * Float.BYTES, GL_DYNAMIC_DRAW);
-		glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0L);
-		glEnableVertexAttribArray(1);
 		ELEMENT_BUFFER_ID = glGenBuffers();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ELEMENT_BUFFER_ID);
-		glBufferData(GL_ELEMENT_ARRAY_BUFFER, new int[] { 0, 1, 2, 2, 3, 0 }, GL_STATIC_DRAW);
-		glBindVertexArray(0);
+		STREAM_VERTEX_ARRAY_ID = glGenVertexArrays();
+		STREAM_VERTEX_BUFFER_ID = glGenBuffers();
+		setUpVertexArray(STREAM_VERTEX_ARRAY_ID, STREAM_VERTEX_BUFFER_ID);
 
-		FONT_SHADER = new Shader(
+		FONT_SHADER = new Shader(FONT_VERTEX_SOURCE,
 				"""
 						#version 330 core
-						layout (location = 0) in vec2 aPos;
-						layout (location = 1) in vec2 aTexCoord;
-						out vec2 texCoord;
-						uniform mat4 projection;
+						layout (location = 0) out vec4 oColor;
+						in vec2 texCoord;
+						uniform vec3 color;
+						uniform sampler2D fontTexture;
 						void main() {
-							texCoord = aTexCoord;
-							gl_Position = projection * vec4(aPos, 0., 1.);
+							oColor = vec4(color, texture2D(fontTexture, texCoord).r);
 						}
 						""",
+				false
+		);
+		SDF_FONT_SHADER = new Shader(FONT_VERTEX_SOURCE,
 				"""
 						#version 330 core
 						layout (location = 0) out vec4 oColor;
@@ -55,15 +82,62 @@ public class TextWriter {
 						uniform vec3 color;
 						uniform sampler2D fontTexture;
 						void main() {
-							oColor = vec4(color, texture2D(fontTexture, texCoord).r);
+							// The outline is at 0.5, blended over about a screen pixel whatever the text size
+							float distance = texture(fontTexture, texCoord).r;
+							float width = max(fwidth(distance) * .7, 1e-4);
+							oColor = vec4(color, smoothstep(.5 - width, .5 + width, distance));
 						}
 						""",
 				false
 		);
+		PROJECTION_UNIFORM = FONT_SHADER.getUniform("projection");
+		OFFSET_UNIFORM = FONT_SHADER.getUniform("offset");
+		COLOR_UNIFORM = FONT_SHADER.getUniform("color");
+		FONT_TEXTURE_UNIFORM = FONT_SHADER.getUniform("fontTexture");
+		SDF_PROJECTION_UNIFORM = SDF_FONT_SHADER.getUniform("projection");
+		SDF_OFFSET_UNIFORM = SDF_FONT_SHADER.getUniform("offset");
+		SDF_COLOR_UNIFORM = SDF_FONT_SHADER.getUniform("color");
+		SDF_FONT_TEXTURE_UNIFORM = SDF_FONT_SHADER.getUniform("fontTexture");
+	}
+
+	// Interleaved position and texture coordinate, indices come from the shared quad index buffer
+	private static void setUpVertexArray(int vertexArrayId, int vertexBufferId) {
+		GLState.bindVertexArray(vertexArrayId);
+		glBindBuffer(GL_ARRAY_BUFFER, vertexBufferId);
+		glVertexAttribPointer(0, 2, GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 0L);
+		glEnableVertexAttribArray(0);
+		glVertexAttribPointer(1, 2, GL_FLOAT, false, FLOATS_PER_VERTEX * Float.BYTES, 2L * Float.BYTES);
+		glEnableVertexAttribArray(1);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ELEMENT_BUFFER_ID);
+		GLState.bindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+
+	// Grows the quad indices in place, so vertex arrays already pointing at the buffer keep working
+	private static void reserveGlyphs(int glyphs) {
+		if (glyphs <= elementCapacity)
+			return;
+		int capacity = Math.max(glyphs, Math.max(256, elementCapacity * 2));
+		int[] indices = new int[capacity * 6];
+		for (int glyph = 0; glyph < capacity; glyph++) {
+			int vertex = glyph * 4, index = glyph * 6;
+			indices[index] = vertex;
+			indices[index + 1] = vertex + 1;
+			indices[index + 2] = vertex + 2;
+			indices[index + 3] = vertex + 2;
+			indices[index + 4] = vertex + 3;
+			indices[index + 5] = vertex;
+		}
+		// Uploaded through the copy target, the element binding belongs to whichever vertex array is bound
+		glBindBuffer(GL_COPY_WRITE_BUFFER, ELEMENT_BUFFER_ID);
+		glBufferData(GL_COPY_WRITE_BUFFER, indices, GL_STATIC_DRAW);
+		glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+		elementCapacity = capacity;
 	}
 
 	public TextWriter(FontAtlas fontAtlas, int viewWidth, int viewHeight) {
 		this.fontAtlas = fontAtlas;
+		atlasEvictions = fontAtlas.getEvictions();
 		setViewMatrix(viewWidth, viewHeight);
 	}
 
@@ -81,6 +155,7 @@ public class TextWriter {
 
 	public void setLineHeight(float lineHeight) {
 		this.lineHeight = lineHeight;
+		clearCache();
 	}
 
 	public Matrix4f getViewMatrix() {
@@ -92,66 +167,150 @@ public class TextWriter {
 	}
 
 	public Vector2f writeText(String text, Vector2f position, float size, Vector3f color) {
+		if (fontAtlas.isSdf()) {
+			SDF_FONT_SHADER.use();
+			SDF_FONT_SHADER.setMatrix4(SDF_PROJECTION_UNIFORM, viewMatrix);
+			SDF_FONT_SHADER.setFloat3(SDF_COLOR_UNIFORM, color);
+			fontAtlas.bind(1);
+			SDF_FONT_SHADER.setSampler(SDF_FONT_TEXTURE_UNIFORM, 1);
+			return draw(text, position, size, SDF_FONT_SHADER, SDF_OFFSET_UNIFORM);
+		}
 		FONT_SHADER.use();
-		FONT_SHADER.setMatrix4("projection", viewMatrix);
-		FONT_SHADER.setFloat3("color", color);
+		FONT_SHADER.setMatrix4(PROJECTION_UNIFORM, viewMatrix);
+		FONT_SHADER.setFloat3(COLOR_UNIFORM, color);
 		fontAtlas.bind(1);
-		FONT_SHADER.setInt("fontTexture", 1);
-		Vector2f origin = new Vector2f(position);
-		for (var ch : text.toCharArray()) {
-			position = writeCharacter(ch, position, origin, size);
-		}
-		return position;
+		FONT_SHADER.setSampler(FONT_TEXTURE_UNIFORM, 1);
+		return draw(text, position, size, FONT_SHADER, OFFSET_UNIFORM);
 	}
 
 	public Vector2f writeText(String text, Vector2f position, float size) {
 		return writeText(text, position, size, new Vector3f(1f));
 	}
 
+	// The shader takes the same attributes as the font shader and a vec2 offset uniform for the position
 	public Vector2f writeText(String text, Vector2f position, float size, Shader fontShader) {
 		fontShader.use();
-		Vector2f origin = new Vector2f(position);
-		for (var ch : text.toCharArray()) {
-			position = writeCharacter(ch, position, origin, size);
+		return draw(text, position, size, fontShader, fontShader.getUniform("offset"));
+	}
+
+	// Drops every cached layout and its buffers
+	public void clearCache() {
+		layouts.values().forEach(Layout::delete);
+		layouts.clear();
+	}
+
+	public void delete() {
+		clearCache();
+	}
+
+	private Vector2f draw(String text, Vector2f position, float size, Shader shader, int offsetUniform) {
+		// Glyphs were evicted from the atlas, some cached layouts point at cleared texels
+		if (atlasEvictions != fontAtlas.getEvictions()) {
+			atlasEvictions = fontAtlas.getEvictions();
+			clearCache();
+		}
+		LayoutKey key = new LayoutKey(text, size);
+		Layout layout = layouts.get(key);
+		if (layout == null) {
+			layout = layOut(text, size);
+			layouts.put(key, layout);
+		} else {
+			layout.upload();
+			for (int codepoint : layout.codepoints)
+				fontAtlas.touch(codepoint);
+		}
+		if (layout.glyphs > 0) {
+			shader.setFloat2(offsetUniform, position.x(), position.y());
+			reserveGlyphs(layout.glyphs);
+			if (layout.vertexArrayId != 0)
+				GLState.bindVertexArray(layout.vertexArrayId);
+			else {
+				GLState.bindVertexArray(STREAM_VERTEX_ARRAY_ID);
+				glBindBuffer(GL_ARRAY_BUFFER, STREAM_VERTEX_BUFFER_ID);
+				// Orphans the previous contents so a draw still reading them never stalls the upload
+				glBufferData(GL_ARRAY_BUFFER, layout.vertices, GL_STREAM_DRAW);
+				glBindBuffer(GL_ARRAY_BUFFER, 0);
+			}
+			glDrawElements(GL_TRIANGLES, layout.glyphs * 6, GL_UNSIGNED_INT, 0L);
+		}
+		return new Vector2f(position).add(layout.endX, layout.endY);
+	}
+
+	private Layout layOut(String text, float size) {
+		fontAtlas.beginLayout();
+		float scale = size / fontAtlas.getImportSize();
+		float[] vertices = new float[text.length() * FLOATS_PER_GLYPH];
+		int glyphs = 0;
+		float x = 0, y = 0, lineY = 0;
+		for (int i = 0; i < text.length(); i += Character.charCount(text.codePointAt(i))) {
+			int codepoint = text.codePointAt(i);
+			var glyph = fontAtlas.getGlyph(codepoint);
+			if (glyph != null) {
+				float width = glyph.width() * scale;
+				float height = glyph.height() * scale;
+				float left = x + glyph.xoff() * scale;
+				float bottom = y + (glyph.yoff() + glyph.height()) * scale;
+				if (width > 0) {
+					int v = glyphs++ * FLOATS_PER_GLYPH;
+					putVertex(vertices, v, left + width, bottom - height, glyph.s1(), glyph.t0());
+					putVertex(vertices, v + 4, left, bottom - height, glyph.s0(), glyph.t0());
+					putVertex(vertices, v + 8, left, bottom, glyph.s0(), glyph.t1());
+					putVertex(vertices, v + 12, left + width, bottom, glyph.s1(), glyph.t1());
+				}
+				x += glyph.xadvance() * scale;
+			} else if (codepoint == '\n') {
+				lineY += lineHeight * size;
+				x = 0;
+				y = lineY;
+			}
 		}
-		return position;
-	}
-
-	private Vector2f writeCharacter(char character, Vector2f position, Vector2f origin, float size) {
-		if (character >= 32 && character <= 128) {
-			var packedChar = fontAtlas.getPackedChar(character);
-			var alignedQuad = fontAtlas.getAlignedQuad(character);
-			Vector2f glyphSize = new Vector2f(
-					(packedChar.x1() - packedChar.x0()) * (size / fontAtlas.getImportSize()),
-					(packedChar.y1() - packedChar.y0()) * (size / fontAtlas.getImportSize())
-			);
-			Vector2f glyphBottomLeft = new Vector2f(
-					(position.x + packedChar.xoff() * (size / fontAtlas.getImportSize())),
-					position.y + (packedChar.yoff() + packedChar.y1() - packedChar.y0()) * (size / fontAtlas.getImportSize())
-			);
-			glBindVertexArray(VERTEX_ARRAY_ID);
-			glBindBuffer(GL_ARRAY_BUFFER, POS_VERTEX_BUFFER_ID);
-			glBufferSubData(GL_ARRAY_BUFFER, 0, new float[]{
-					glyphBottomLeft.x + glyphSize.x, glyphBottomLeft.y - glyphSize.y,
-					glyphBottomLeft.x, glyphBottomLeft.y - glyphSize.y,
-					glyphBottomLeft.x, glyphBottomLeft.y,
-					glyphBottomLeft.x + glyphSize.x, glyphBottomLeft.y,
-			});
-			glBindBuffer(GL_ARRAY_BUFFER, TEX_VERTEX_BUFFER_ID);
-			glBufferSubData(GL_ARRAY_BUFFER, 0, new float[]{
-					alignedQuad.s1(), alignedQuad.t0(),
-					alignedQuad.s0(), alignedQuad.t0(),
-					alignedQuad.s0(), alignedQuad.t1(),
-					alignedQuad.s1(), alignedQuad.t1(),
-			});
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ELEMENT_BUFFER_ID);
-			glDrawElements(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0L);
-			return new Vector2f(position.x() + packedChar.xadvance() * (size / fontAtlas.getImportSize()), position.y());
+		int[] codepoints = text.codePoints().filter(codepoint -> codepoint >= 32).distinct().toArray();
+		return new Layout(Arrays.copyOf(vertices, glyphs * FLOATS_PER_GLYPH), glyphs, codepoints, x, y);
+	}
+
+	private static void putVertex(float[] vertices, int index, float x, float y, float s, float t) {
+		vertices[index] = x;
+		vertices[index + 1] = y;
+		vertices[index + 2] = s;
+		vertices[index + 3] = t;
+	}
+
+	private record LayoutKey(String text, float size) {}
+
+	private static class Layout {
+		final float[] vertices;
+		final int glyphs;
+		// Kept so drawing the cached layout keeps its glyphs recently used in the atlas
+		final int[] codepoints;
+		final float endX, endY;
+		int vertexArrayId = 0;
+		int vertexBufferId = 0;
+
+		Layout(float[] vertices, int glyphs, int[] codepoints, float endX, float endY) {
+			this.vertices = vertices;
+			this.glyphs = glyphs;
+			this.codepoints = codepoints;
+			this.endX = endX;
+			this.endY = endY;
 		}
-		else if (character == '\n') {
-			origin.y += lineHeight * size;
-			return origin;
+
+		// Text drawn more than once gets a static buffer of its own
+		void upload() {
+			if (vertexArrayId != 0 || glyphs == 0)
+				return;
+			vertexArrayId = glGenVertexArrays();
+			vertexBufferId = glGenBuffers();
+			glBindBuffer(GL_ARRAY_BUFFER, vertexBufferId);
+			glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+			setUpVertexArray(vertexArrayId, vertexBufferId);
+		}
+
+		void delete() {
+			if (vertexArrayId == 0)
+				return;
+			GLState.deleteVertexArray(vertexArrayId);
+			glDeleteBuffers(vertexBufferId);
+			vertexArrayId = 0;
 		}
-		return position;
 	}
 }
@@ -20,11 +20,10 @@ public abstract class Texture {
 	}
 
 	public final void bind(int index) {
-		glActiveTexture(GL_TEXTURE0 + index);
-		glBindTexture(GL_TEXTURE_2D, textureId);
+		GLState.bindTexture(index, textureId);
 	}
 
-	public final void delete() {
-		glDeleteTextures(textureId);
+	public void delete() {
+		GLState.deleteTexture(textureId);
 	}
 }
@@ -0,0 +1,64 @@
+package com.crossly.engine.graphics;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// A std140 uniform block bound once to a fixed binding point. Values are staged in an off heap
+// copy and upload() sends it only when something was written since the last upload. Shaders
+// pick the block up with Shader.bindUniformBlock.
+public class UniformBuffer {
+
+	private final int bufferId;
+	private final int binding;
+	private final ByteBuffer data;
+	private boolean dirty = false;
+
+	public UniformBuffer(int binding, int size) {
+		this.binding = binding;
+		data = MemoryUtil.memCalloc(size);
+		bufferId = glGenBuffers();
+		glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+		glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+		glBindBuffer(GL_UNIFORM_BUFFER, 0);
+		glBindBufferBase(GL_UNIFORM_BUFFER, binding, bufferId);
+	}
+
+	public int getBinding() {
+		return binding;
+	}
+
+	public void setMatrix4(int offset, Matrix4fc value) {
+		value.get(offset, data);
+		dirty = true;
+	}
+
+	// A vec3 takes a full vec4 slot in std140
+	public void setFloat3(int offset, Vector3fc value) {
+		value.get(offset, data);
+		dirty = true;
+	}
+
+	public void setFloat(int offset, float value) {
+		data.putFloat(offset, value);
+		dirty = true;
+	}
+
+	public void upload() {
+		if (!dirty)
+			return;
+		glBindBuffer(GL_UNIFORM_BUFFER, bufferId);
+		glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+		glBindBuffer(GL_UNIFORM_BUFFER, 0);
+		dirty = false;
+	}
+
+	public void delete() {
+		glDeleteBuffers(bufferId);
+		MemoryUtil.memFree(data);
+	}
+}
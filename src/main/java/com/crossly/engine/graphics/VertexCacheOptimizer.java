@@ -0,0 +1,140 @@
+package com.crossly.engine.graphics;
+
+import java.util.Arrays;
+
+// Import time reordering of indexed triangle lists for the GPU's post transform vertex cache, using
+// Tom Forsyth's linear speed algorithm: triangles are emitted greedily by the score of their
+// vertices, which favours vertices still in a simulated LRU cache and vertices with few triangles
+// left. Vertices are then renumbered in order of first use so fetches walk the buffer forwards.
+final class VertexCacheOptimizer {
+
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = .75f;
+	private static final float VALENCE_BOOST_SCALE = 2f;
+	private static final float VALENCE_BOOST_POWER = .5f;
+
+	private VertexCacheOptimizer() {}
+
+	// Reorders the triangles of the list in place
+	static void optimizeTriangles(int[] indices, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		if (triangleCount < 2)
+			return;
+		// Triangles of each vertex, the live ones at the front of each vertex's range
+		int[] remaining = new int[vertexCount];
+		for (int index : indices)
+			remaining[index]++;
+		int[] offsets = new int[vertexCount];
+		for (int v = 1; v < vertexCount; v++)
+			offsets[v] = offsets[v - 1] + remaining[v - 1];
+		int[] triangles = new int[indices.length];
+		int[] fill = offsets.clone();
+		for (int i = 0; i < indices.length; i++)
+			triangles[fill[indices[i]]++] = i / 3;
+
+		int[] cachePosition = new int[vertexCount];
+		float[] vertexScore = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			cachePosition[v] = -1;
+			vertexScore[v] = score(-1, remaining[v]);
+		}
+		float[] triangleScore = new float[triangleCount];
+		for (int t = 0; t < triangleCount; t++)
+			triangleScore[t] = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]] + vertexScore[indices[t * 3 + 2]];
+		boolean[] emitted = new boolean[triangleCount];
+		int[] cache = new int[CACHE_SIZE + 3], nextCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int[] output = new int[indices.length];
+		int best = -1;
+		for (int n = 0; n < triangleCount; n++) {
+			if (best < 0) {
+				// Nothing in the cache has triangles left, start from the best anywhere
+				float bestScore = -1;
+				for (int t = 0; t < triangleCount; t++) {
+					if (!emitted[t] && triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+			emitted[best] = true;
+			int nextCount = 0;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[best * 3 + k];
+				output[n * 3 + k] = v;
+				int start = offsets[v], end = start + remaining[v] - 1;
+				for (int j = start; j <= end; j++) {
+					if (triangles[j] == best) {
+						triangles[j] = triangles[end];
+						triangles[end] = best;
+						break;
+					}
+				}
+				remaining[v]--;
+				nextCache[nextCount++] = v;
+			}
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				if (v != nextCache[0] && v != nextCache[1] && v != nextCache[2])
+					nextCache[nextCount++] = v;
+			}
+			for (int i = 0; i < nextCount; i++) {
+				int v = nextCache[i];
+				cachePosition[v] = i < CACHE_SIZE ? i : -1;
+				vertexScore[v] = score(cachePosition[v], remaining[v]);
+			}
+			// Only triangles of vertices whose score moved can change, the best of them goes next
+			best = -1;
+			float bestScore = -1;
+			for (int i = 0; i < nextCount; i++) {
+				int v = nextCache[i];
+				for (int j = offsets[v], end = offsets[v] + remaining[v]; j < end; j++) {
+					int t = triangles[j];
+					float s = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]] + vertexScore[indices[t * 3 + 2]];
+					triangleScore[t] = s;
+					if (s > bestScore) {
+						bestScore = s;
+						best = t;
+					}
+				}
+			}
+			int[] swap = cache;
+			cache = nextCache;
+			nextCache = swap;
+			cacheCount = Math.min(nextCount, CACHE_SIZE);
+		}
+		System.arraycopy(output, 0, indices, 0, indices.length);
+	}
+
+	// Renumbers vertices in order of first use, rewriting the indices. Returns the old vertex of
+	// each new one; vertices no triangle uses are dropped, so the result can be shorter than vertexCount.
+	static int[] optimizeVertexFetch(int[] indices, int vertexCount) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+		int[] order = new int[vertexCount];
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) {
+				remap[v] = next;
+				order[next++] = v;
+			}
+			indices[i] = remap[v];
+		}
+		return Arrays.copyOf(order, next);
+	}
+
+	private static float score(int cachePosition, int remainingTriangles) {
+		if (remainingTriangles == 0)
+			return -1;
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3)
+				score = LAST_TRIANGLE_SCORE;
+			else
+				score = (float) Math.pow(1 - (cachePosition - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+		}
+		return score + VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+	}
+}
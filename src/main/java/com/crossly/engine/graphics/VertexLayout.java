@@ -0,0 +1,90 @@
+package com.crossly.engine.graphics;
+
+import java.util.List;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Attributes of one interleaved vertex, in buffer order. Attributes can be narrower than floats,
+// e.g. normals packed into GL_INT_2_10_10_10_REV, to cut vertex fetch bandwidth.
+public class VertexLayout {
+
+	public record Attribute(int location, int components, int type, boolean normalized) {
+
+		public static Attribute floats(int location, int components) {
+			return new Attribute(location, components, GL_FLOAT, false);
+		}
+
+		// Integers read by the shader as floats in [-1, 1] for signed types and [0, 1] for unsigned
+		public static Attribute normalized(int location, int components, int type) {
+			return new Attribute(location, components, type, true);
+		}
+
+		// A unit vector in 10 bits per component, see packNormal
+		public static Attribute packedNormal(int location) {
+			return new Attribute(location, 4, GL_INT_2_10_10_10_REV, true);
+		}
+
+		public int size() {
+			return switch (type) {
+				case GL_INT_2_10_10_10_REV, GL_UNSIGNED_INT_2_10_10_10_REV -> 4;
+				case GL_FLOAT, GL_INT, GL_UNSIGNED_INT -> components * 4;
+				case GL_HALF_FLOAT, GL_SHORT, GL_UNSIGNED_SHORT -> components * 2;
+				case GL_BYTE, GL_UNSIGNED_BYTE -> components;
+				default -> throw new IllegalArgumentException("Unsupported vertex attribute type " + type);
+			};
+		}
+	}
+
+	private final List<Attribute> attributes;
+	private final int stride;
+
+	public VertexLayout(Attribute... attributes) {
+		this.attributes = List.of(attributes);
+		int stride = 0;
+		for (var attribute : attributes)
+			stride += attribute.size();
+		// Keeps every vertex 4 byte aligned, which some drivers need to fetch without a copy
+		this.stride = (stride + 3) & ~3;
+	}
+
+	// The layout of Mesh's array constructor: position, then texture coordinate and normal when present
+	public static VertexLayout of(boolean is3D, boolean hasTextureCoordinates, boolean hasNormals) {
+		Attribute position = Attribute.floats(0, is3D ? 3 : 2);
+		Attribute textureCoordinate = Attribute.floats(1, 2);
+		Attribute normal = Attribute.floats(2, 3);
+		if (hasTextureCoordinates && hasNormals)
+			return new VertexLayout(position, textureCoordinate, normal);
+		if (hasTextureCoordinates)
+			return new VertexLayout(position, textureCoordinate);
+		if (hasNormals)
+			return new VertexLayout(position, normal);
+		return new VertexLayout(position);
+	}
+
+	public List<Attribute> getAttributes() {
+		return attributes;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	// Points the bound vertex array's attributes at the bound array buffer
+	void apply() {
+		long offset = 0;
+		for (var attribute : attributes) {
+			glVertexAttribPointer(attribute.location(), attribute.components(), attribute.type(), attribute.normalized(), stride, offset);
+			glEnableVertexAttribArray(attribute.location());
+			offset += attribute.size();
+		}
+	}
+
+	// Signed 10 bit x, y and z of a unit vector for a packedNormal attribute
+	public static int packNormal(float x, float y, float z) {
+		return pack10(x) | pack10(y) << 10 | pack10(z) << 20;
+	}
+
+	private static int pack10(float value) {
+		return Math.round(Math.max(-1f, Math.min(1f, value)) * 511f) & 0x3FF;
+	}
+}
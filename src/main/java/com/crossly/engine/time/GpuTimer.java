@@ -0,0 +1,42 @@
+package com.crossly.engine.time;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Measures GPU time between begin() and end() with GL_TIME_ELAPSED queries. Results are read a few
+// frames later once available so measuring never stalls the pipeline. Only one timer may be
+// running at a time.
+public class GpuTimer {
+
+	private static final int QUERIES_IN_FLIGHT = 3;
+
+	private final int[] queries = new int[QUERIES_IN_FLIGHT];
+	private long frame = 0;
+	private float milliseconds = 0f;
+
+	public GpuTimer() {
+		glGenQueries(queries);
+	}
+
+	public void begin() {
+		int query = queries[(int) (frame % QUERIES_IN_FLIGHT)];
+		if (frame >= QUERIES_IN_FLIGHT && glGetQueryObjecti(query, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+			float sample = glGetQueryObjectui64(query, GL_QUERY_RESULT) / 1e6f;
+			milliseconds = milliseconds == 0f ? sample : milliseconds * .9f + sample * .1f;
+		}
+		glBeginQuery(GL_TIME_ELAPSED, query);
+	}
+
+	public void end() {
+		glEndQuery(GL_TIME_ELAPSED);
+		frame++;
+	}
+
+	// Smoothed over the last few frames
+	public float getMilliseconds() {
+		return milliseconds;
+	}
+
+	public void delete() {
+		glDeleteQueries(queries);
+	}
+}
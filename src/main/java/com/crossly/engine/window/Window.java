@@ -1,6 +1,8 @@
 package com.crossly.engine.window;
 
 import com.crossly.engine.Engine;
+import com.crossly.engine.graphics.Framebuffer;
+import com.crossly.engine.graphics.GLState;
 import com.crossly.engine.input.Input;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.GL;
@@ -27,25 +29,31 @@ public class Window {
 		glfwSwapInterval(1);
 		GL.createCapabilities();
 		input.setWindowHandle(window);
-		glEnable(GL_DEPTH_TEST);
-		glEnable(GL_BLEND);
-		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		int[] framebufferWidth = new int[1], framebufferHeight = new int[1];
+		glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
+		Framebuffer.setScreenSize(framebufferWidth[0], framebufferHeight[0]);
+		GLState.setDepthTest(true);
+		GLState.setBlend(true);
+		GLState.setBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 		glBlendEquation(GL_FUNC_ADD);
 		glfwSetKeyCallback(window, new GLFWKeyCallback() {
 			@Override
 			public void invoke(long window, int key, int scancode, int action, int mods) {
 				input.setKeyPressed(key, action >= GLFW_PRESS);
+				engine.requestRender();
 			}
 		});
 		glfwSetMouseButtonCallback(window, new GLFWMouseButtonCallback() {
 			@Override
 			public void invoke(long window, int button, int action, int mods) {
 				input.setButtonPressed(button, action >= GLFW_PRESS);
+				engine.requestRender();
 			}
 		});
 		glfwSetCursorPosCallback(window, new GLFWCursorPosCallback() {
 			@Override
 			public void invoke(long window, double x, double y) {
+				// Hovering changes nothing on screen so it does not request a frame
 				input.setMousePos(x, y);
 			}
 		});
@@ -53,6 +61,7 @@ public class Window {
 			@Override
 			public void invoke(long window, double x, double y) {
 				input.setScrollAmount(x, y);
+				engine.requestRender();
 			}
 		});
 		glfwSetFramebufferSizeCallback(window, new GLFWFramebufferSizeCallback() {
@@ -60,16 +69,34 @@ public class Window {
 			public void invoke(long window, int width, int height) {
 				engine.setWindowWidth(width);
 				engine.setWindowHeight(height);
+				Framebuffer.setScreenSize(width, height);
 				engine.onResize();
-				glViewport(0, 0, width, height);
+				engine.requestRender();
+			}
+		});
+		glfwSetWindowRefreshCallback(window, new GLFWWindowRefreshCallback() {
+			@Override
+			public void invoke(long window) {
+				engine.requestRender();
 			}
 		});
 	}
 
-	public boolean isOpen() {
+	public void swapBuffers() {
 		glfwSwapBuffers(window);
+	}
+
+	public void pollEvents() {
 		glfwPollEvents();
-		return !glfwWindowShouldClose(window);
+	}
+
+	// Sleeps until an event arrives or the timeout in seconds passes
+	public void waitEvents(double timeout) {
+		glfwWaitEventsTimeout(timeout);
+	}
+
+	public boolean shouldClose() {
+		return glfwWindowShouldClose(window);
 	}
 
 	public void cleanup() {
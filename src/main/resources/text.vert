@@ -3,8 +3,9 @@ layout (location = 0) in vec2 aPosition;
 layout (location = 1) in vec2 aTexCoord;
 out vec2 iTexCoord;
 uniform mat4 uOrtho;
+uniform vec2 offset;
 
 void main() {
     iTexCoord = aTexCoord;
-    gl_Position = uOrtho * vec4(aPosition, 0.0, 1.0);
+    gl_Position = uOrtho * vec4(aPosition + offset, 0.0, 1.0);
 }
\ No newline at end of file
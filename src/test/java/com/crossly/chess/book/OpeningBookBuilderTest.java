@@ -0,0 +1,86 @@
+package com.crossly.chess.book;
+
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpeningBookBuilderTest {
+
+	private static final String[] GAMES = {
+			"[Result \"1-0\"]\n\n1. e4 e5 2. Nf3 Nc6 3. Bb5 a6 1-0\n\n",
+			"[Result \"1/2-1/2\"]\n\n1. d4 d5 2. c4 e6 3. Nc3 Nf6 1/2-1/2\n\n",
+			"[Result \"0-1\"]\n\n1. e4 c5 2. Nf3 d6 3. d4 cxd4 0-1\n\n",
+			// No result, so it is left out
+			"[Result \"*\"]\n\n1. c4 e5 *\n\n",
+	};
+
+	// Enough games for several batches, so every worker gets some
+	private static Path writePgn(Path directory) throws IOException {
+		StringBuilder pgn = new StringBuilder();
+		for (int i = 0; i < 300; i++)
+			pgn.append(GAMES[i % GAMES.length]);
+		Path path = directory.resolve("games.pgn");
+		Files.writeString(path, pgn);
+		return path;
+	}
+
+	private static long build(Path pgn, Path output, int threads, int mapCapacityBits) throws IOException {
+		OpeningBookBuilder builder = new OpeningBookBuilder(Zobrist.DEFAULT);
+		builder.setThreads(threads);
+		builder.setMapCapacityBits(mapCapacityBits);
+		return builder.build(List.of(pgn), output);
+	}
+
+	@Test
+	void spilledRunsMergeToTheSameBook(@TempDir Path directory) throws IOException {
+		Path pgn = writePgn(directory);
+		Path single = directory.resolve("single.bin");
+		Path spilled = directory.resolve("spilled.bin");
+		long entries = build(pgn, single, 1, 16);
+		// Eight entries per map forces many small runs from every worker
+		assertEquals(entries, build(pgn, spilled, 4, 4));
+		assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(spilled));
+		try (var stream = Files.list(directory)) {
+			assertEquals(3, stream.count(), "run files were left behind");
+		}
+
+		ByteBuffer book = ByteBuffer.wrap(Files.readAllBytes(single));
+		assertEquals(entries * OpeningBook.ENTRY_BYTES, book.capacity());
+		for (int i = 1; i < entries; i++) {
+			long previous = book.getLong((i - 1) * OpeningBook.ENTRY_BYTES);
+			long key = book.getLong(i * OpeningBook.ENTRY_BYTES);
+			assertTrue(Long.compareUnsigned(previous, key) <= 0, "entry " + i + " is out of key order");
+		}
+	}
+
+	@Test
+	void weightsWinsAndDraws(@TempDir Path directory) throws IOException {
+		Path output = directory.resolve("book.bin");
+		build(writePgn(directory), output, 2, 4);
+		try (OpeningBook book = new OpeningBook(output, Zobrist.DEFAULT)) {
+			Position start = Position.startingPosition();
+			var moves = book.lookup(start);
+			// 75 wins and 75 losses with 1.e4 against 75 draws with 1.d4, 1.c4 had no result
+			assertEquals(2, moves.size());
+			assertEquals(start.findMove(12, 28, Position.EMPTY), moves.get(0).move());
+			assertEquals(150, moves.get(0).weight());
+			assertEquals(start.findMove(11, 27, Position.EMPTY), moves.get(1).move());
+			assertEquals(75, moves.get(1).weight());
+
+			// After 1.e4 black only scored with 1...c5, the losing 1...e5 gets no weight and is dropped
+			start.play(moves.get(0).move());
+			var replies = book.lookup(start);
+			assertEquals(1, replies.size());
+			assertEquals(150, replies.get(0).weight());
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.crossly.chess.book;
+
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.MoveList;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OpeningBookTest {
+
+	private static int move(Position position, String from, String to, int promotion) {
+		return position.findMove(Position.parseSquare(from), Position.parseSquare(to), promotion);
+	}
+
+	@Test
+	void encodesPolyglotMoves() {
+		Position castling = Position.fromFen("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+		// Castling is written as the king taking its own rook
+		assertEquals((short) (7 | 4 << 6), OpeningBook.encodeMove(move(castling, "e1", "g1", Position.EMPTY)));
+		assertEquals((short) (4 << 6), OpeningBook.encodeMove(move(castling, "e1", "c1", Position.EMPTY)));
+		Position promotion = Position.fromFen("4k3/P7/8/8/8/8/8/4K3 w - - 0 1");
+		assertEquals((short) (56 | 48 << 6 | 4 << 12), OpeningBook.encodeMove(move(promotion, "a7", "a8", Position.QUEEN)));
+		assertEquals((short) (56 | 48 << 6 | 1 << 12), OpeningBook.encodeMove(move(promotion, "a7", "a8", Position.KNIGHT)));
+		Position start = Position.startingPosition();
+		assertEquals((short) (28 | 12 << 6), OpeningBook.encodeMove(move(start, "e2", "e4", Position.EMPTY)));
+	}
+
+	@Test
+	void decodesEveryLegalMoveBack() {
+		for (String fen : new String[] {
+				Position.STARTING_FEN,
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R b KQkq - 0 1",
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 b kq - 0 1" }) {
+			Position position = Position.fromFen(fen);
+			MoveList moves = new MoveList();
+			position.generateLegalMoves(moves);
+			for (int i = 0; i < moves.size(); i++)
+				assertEquals(moves.get(i), OpeningBook.decodeMove(position, OpeningBook.encodeMove(moves.get(i))), fen);
+		}
+	}
+
+	@Test
+	void looksUpEntriesInUnsignedKeyOrder(@TempDir Path directory) throws IOException {
+		Zobrist zobrist = Zobrist.DEFAULT;
+		Position start = Position.startingPosition();
+		Position afterE4 = new Position(start);
+		afterE4.play(move(start, "e2", "e4", Position.EMPTY));
+		Position afterD4 = new Position(start);
+		afterD4.play(move(start, "d2", "d4", Position.EMPTY));
+		// A sign flipped key sorts on the other side of the start key, as a signed search would go wrong
+		long[] keys = { zobrist.hash(start), zobrist.hash(start) ^ Long.MIN_VALUE };
+		if (Long.compareUnsigned(keys[0], keys[1]) > 0)
+			keys = new long[] { keys[1], keys[0] };
+		Path path = directory.resolve("book.bin");
+		try (var out = new DataOutputStream(Files.newOutputStream(path))) {
+			for (long key : keys) {
+				boolean real = key == zobrist.hash(start);
+				out.writeLong(key);
+				out.writeShort(real ? OpeningBook.encodeMove(move(start, "e2", "e4", Position.EMPTY)) : 0);
+				out.writeShort(3);
+				out.writeInt(0);
+				out.writeLong(key);
+				out.writeShort(real ? OpeningBook.encodeMove(move(start, "d2", "d4", Position.EMPTY)) : 0);
+				out.writeShort(1);
+				out.writeInt(0);
+			}
+		}
+		try (OpeningBook book = new OpeningBook(path, zobrist)) {
+			assertEquals(4, book.getEntryCount());
+			var moves = book.lookup(start);
+			assertEquals(2, moves.size());
+			assertEquals(move(start, "e2", "e4", Position.EMPTY), moves.get(0).move());
+			assertEquals(3, moves.get(0).weight());
+			assertEquals(1, moves.get(1).weight());
+			assertTrue(book.lookup(afterE4).isEmpty());
+			assertEquals(Move.NONE, book.pick(afterD4, new Random(1)));
+			assertNotEquals(Move.NONE, book.pick(start, new Random(1)));
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.crossly.chess.database;
+
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.notation.PgnReader;
+import com.crossly.chess.rules.Position;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExplorerTableTest {
+
+	private static final String PGN = """
+			[Result "1-0"]
+
+			1. e4 e5 2. Nf3 1-0
+
+			[Result "1/2-1/2"]
+
+			1. e4 c5 1/2-1/2
+
+			[Result "0-1"]
+
+			1. d4 d5 0-1
+			""";
+
+	@Test
+	void countsResultsPerMove(@TempDir Path directory) throws IOException {
+		try (GameStore store = GameStore.open(directory.resolve("store"));
+			 ExplorerTable explorer = ExplorerTable.open(directory.resolve("explorer"))) {
+			store.append(read());
+			explorer.refresh(store);
+			var stats = explorer.lookup(Position.startingPosition());
+			assertEquals(2, stats.size());
+			int games = 0;
+			for (var move : stats) {
+				games += move.games();
+				if (move.from() == Position.parseSquare("e2")) {
+					assertEquals(2, move.games());
+					assertEquals(1, move.whiteWins());
+					assertEquals(1, move.draws());
+				} else {
+					assertEquals(1, move.blackWins());
+				}
+			}
+			assertEquals(3, games);
+		}
+	}
+
+	// A file that only looks like a table neither hides the latest generation nor gets it deleted
+	@Test
+	void ignoresStrayTableNames(@TempDir Path directory) throws IOException {
+		Path tables = directory.resolve("explorer");
+		try (GameStore store = GameStore.open(directory.resolve("store"));
+			 ExplorerTable explorer = ExplorerTable.open(tables)) {
+			store.append(read());
+			explorer.refresh(store);
+		}
+		Files.writeString(tables.resolve("explorer-foo.tbl"), "not a table");
+		try (ExplorerTable explorer = ExplorerTable.open(tables)) {
+			assertEquals(3, explorer.getAggregatedGames());
+			assertFalse(explorer.lookup(Position.startingPosition()).isEmpty());
+		}
+		assertTrue(Files.exists(tables.resolve("explorer-foo.tbl")));
+	}
+
+	private static List<PgnGame> read() throws IOException {
+		List<PgnGame> games = new ArrayList<>();
+		try (PgnReader reader = new PgnReader(new StringReader(PGN))) {
+			for (var game = reader.next(); game != null; game = reader.next())
+				games.add(game);
+		}
+		return games;
+	}
+}
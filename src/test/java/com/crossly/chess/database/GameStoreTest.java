@@ -0,0 +1,145 @@
+package com.crossly.chess.database;
+
+import com.crossly.chess.notation.MoveNotation;
+import com.crossly.chess.notation.PgnGame;
+import com.crossly.chess.notation.PgnReader;
+import com.crossly.chess.rules.Position;
+import com.crossly.chess.rules.Zobrist;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameStoreTest {
+
+	private static final String FIRST_PGN = """
+			[Event "One"]
+			[WhiteElo "2400"]
+			[BlackElo "2350"]
+			[Result "1-0"]
+
+			1. e4 e5 2. Nf3 {a comment} Nc6 3. Bb5 $1 a6 (3... Nf6 4. O-O) 4. Ba4 Nf6 5. O-O 1-0
+
+			[Event "Two"]
+			[Result "1/2-1/2"]
+
+			1. e4 c5 2. Nf3 d6 ; rest of line skipped
+			3. d4 cxd4 4. Nxd4 Nf6 5. Nc3 a6 1/2-1/2
+			""";
+
+	private static final String SECOND_PGN = """
+			[Event "Three"]
+			[Result "0-1"]
+
+			1.e4 e5 2.Nf3 Nc6 3.d4 exd4 0-1
+			""";
+
+	private static List<PgnGame> read(String pgn) throws IOException {
+		List<PgnGame> games = new ArrayList<>();
+		try (PgnReader reader = new PgnReader(new StringReader(pgn))) {
+			for (var game = reader.next(); game != null; game = reader.next())
+				games.add(game);
+		}
+		return games;
+	}
+
+	private static Position play(String... moves) {
+		Position position = Position.startingPosition();
+		MoveNotation notation = new MoveNotation();
+		for (String san : moves)
+			position.play(notation.parseSan(position, san));
+		return position;
+	}
+
+	@Test
+	void readsTagsAndSkipsCommentsAndVariations() throws IOException {
+		var games = read(FIRST_PGN);
+		assertEquals(2, games.size());
+		assertEquals(9, games.get(0).moves().length);
+		assertEquals(PgnGame.Result.WHITE_WINS, games.get(0).result());
+		assertEquals(2400, games.get(0).whiteElo());
+		assertEquals(10, games.get(1).moves().length);
+		assertEquals(PgnGame.Result.DRAW, games.get(1).result());
+	}
+
+	@Test
+	void findsPositionsAcrossAppends(@TempDir Path directory) throws IOException {
+		try (GameStore store = GameStore.open(directory)) {
+			assertEquals(2, store.append(read(FIRST_PGN)));
+			assertEquals(1, store.append(read(SECOND_PGN)));
+		}
+		try (GameStore store = GameStore.open(directory)) {
+			assertEquals(3, store.getGameCount());
+			assertEquals(25, store.getPlyCount());
+			Zobrist zobrist = store.getZobrist();
+
+			assertEquals(3, store.count(zobrist.hash(Position.startingPosition())));
+			assertEquals(3, store.count(zobrist.hash(play("e4"))));
+			var postings = store.find(play("e4", "e5", "Nf3", "Nc6"), 10);
+			assertEquals(2, postings.size());
+			assertEquals(List.of(0, 2), postings.stream().map(GameStore.Posting::game).toList());
+			assertEquals(4, postings.get(0).ply());
+			assertEquals(1, store.find(play("e4", "e5", "Nf3", "Nc6"), 1).size());
+			assertEquals(0, store.count(zobrist.hash(play("d4"))));
+
+			// Every stored ply is found under its own key, whatever the key's sign
+			for (int id = 0; id < store.getGameCount(); id++) {
+				var game = store.getGame(id);
+				Position position = Position.startingPosition();
+				for (int ply = 0; ply <= game.moves().length; ply++) {
+					long key = zobrist.hash(position);
+					assertTrue(store.find(key, 100).contains(new GameStore.Posting(id, ply)), "game " + id + " ply " + ply);
+					assertEquals(store.find(key, 100).size(), store.count(key));
+					if (ply < game.moves().length)
+						position.play(game.moves()[ply]);
+				}
+			}
+
+			assertEquals(PgnGame.Result.BLACK_WINS, store.getResult(2));
+			assertEquals(2350, store.getBlackElo(0));
+			assertEquals(play("e4", "c5", "Nf3").toFen(), store.getPosition(1, 3).toFen());
+		}
+	}
+
+	// An append that fails partway leaves the store as it was, so the next append writes in the right place
+	@Test
+	void failedAppendIsRolledBack(@TempDir Path directory) throws IOException {
+		var first = read(FIRST_PGN);
+		try (GameStore store = GameStore.open(directory)) {
+			store.append(first.subList(0, 1));
+			Iterable<PgnGame> failing = () -> new Iterator<>() {
+				int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return true;
+				}
+
+				@Override
+				public PgnGame next() {
+					if (next++ == 1)
+						throw new IllegalStateException("Bad game");
+					return first.get(1);
+				}
+			};
+			assertThrows(IllegalStateException.class, () -> store.append(failing));
+			assertEquals(1, store.getGameCount());
+			assertEquals(9, store.getPlyCount());
+			assertEquals(1, store.append(read(SECOND_PGN)));
+			assertEquals(2, store.getGameCount());
+			assertEquals(2, store.count(store.getZobrist().hash(Position.startingPosition())));
+			assertEquals(6, store.getGame(1).moves().length);
+		}
+		try (GameStore store = GameStore.open(directory)) {
+			assertEquals(2, store.getGameCount());
+			assertEquals(PgnGame.Result.BLACK_WINS, store.getResult(1));
+		}
+	}
+}
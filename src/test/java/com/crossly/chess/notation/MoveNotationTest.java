@@ -0,0 +1,74 @@
+package com.crossly.chess.notation;
+
+import com.crossly.chess.rules.Move;
+import com.crossly.chess.rules.MoveList;
+import com.crossly.chess.rules.Position;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoveNotationTest {
+
+	private final MoveNotation notation = new MoveNotation();
+
+	private String san(String fen, String from, String to, int promotion) {
+		Position position = Position.fromFen(fen);
+		int move = position.findMove(Position.parseSquare(from), Position.parseSquare(to), promotion);
+		assertNotEquals(Move.NONE, move, from + to + " is not legal in " + fen);
+		String san = notation.toSan(position, move);
+		assertEquals(move, notation.parseSan(position, san), san + " does not parse back");
+		return san;
+	}
+
+	@Test
+	void castling() {
+		String fen = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1";
+		assertEquals("O-O", san(fen, "e1", "g1", Position.EMPTY));
+		assertEquals("O-O-O", san(fen, "e1", "c1", Position.EMPTY));
+		assertEquals("O-O", san(fen.replace(" w ", " b "), "e8", "g8", Position.EMPTY));
+		Position position = Position.fromFen(fen);
+		assertEquals(position.findMove(4, 2, Position.EMPTY), notation.parseSan(position, "0-0-0"));
+	}
+
+	@Test
+	void promotion() {
+		String fen = "r3k3/1P6/8/8/8/8/8/4K3 w - - 0 1";
+		assertEquals("b8=Q+", san(fen, "b7", "b8", Position.QUEEN));
+		assertEquals("b8=N", san(fen, "b7", "b8", Position.KNIGHT));
+		assertEquals("bxa8=R+", san(fen, "b7", "a8", Position.ROOK));
+		Position position = Position.fromFen(fen);
+		assertEquals(position.findMove(49, 57, Position.QUEEN), notation.parseSan(position, "b8Q"));
+	}
+
+	@Test
+	void disambiguation() {
+		assertEquals("Nbd2", san("4k3/8/8/8/8/8/8/1N2KN2 w - - 0 1", "b1", "d2", Position.EMPTY));
+		assertEquals("R1a3", san("4k3/8/8/R7/8/8/8/R3K3 w - - 0 1", "a1", "a3", Position.EMPTY));
+		String queens = "8/8/8/7k/8/Q7/8/Q1Q4K w - - 0 1";
+		assertEquals("Qa1b2", san(queens, "a1", "b2", Position.EMPTY));
+		assertEquals("Q3b2", san(queens, "a3", "b2", Position.EMPTY));
+		assertEquals("Qcb2", san(queens, "c1", "b2", Position.EMPTY));
+	}
+
+	@Test
+	void checkAndMate() {
+		assertEquals("Qxf7#", san("r1bqkb1r/pppp1ppp/2n2n2/4p2Q/2B1P3/8/PPPP1PPP/RNB1K1NR w KQkq - 4 4", "h5", "f7", Position.EMPTY));
+	}
+
+	// Every legal move of a busy position survives writing and reading back
+	@Test
+	void roundTripAllMoves() {
+		for (String fen : new String[] {
+				"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+				"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+				"rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3" }) {
+			Position position = Position.fromFen(fen);
+			MoveList moves = new MoveList();
+			position.generateLegalMoves(moves);
+			for (int i = 0; i < moves.size(); i++) {
+				String san = notation.toSan(position, moves.get(i));
+				assertEquals(moves.get(i), notation.parseSan(position, san), san + " in " + fen);
+			}
+		}
+	}
+}
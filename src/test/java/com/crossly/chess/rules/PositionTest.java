@@ -0,0 +1,60 @@
+package com.crossly.chess.rules;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Perft counts from the Chess Programming Wiki's standard test positions
+class PositionTest {
+
+	static final String KIWIPETE = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+	private static long perft(Position position, int depth) {
+		MoveList moves = new MoveList();
+		position.generateLegalMoves(moves);
+		if (depth == 1)
+			return moves.size();
+		long nodes = 0;
+		Position next = new Position();
+		for (int i = 0; i < moves.size(); i++) {
+			next.set(position);
+			next.play(moves.get(i));
+			nodes += perft(next, depth - 1);
+		}
+		return nodes;
+	}
+
+	private static void assertPerft(String fen, long... counts) {
+		Position position = Position.fromFen(fen);
+		for (int depth = 1; depth <= counts.length; depth++)
+			assertEquals(counts[depth - 1], perft(position, depth), fen + " at depth " + depth);
+	}
+
+	@Test
+	void startingPosition() {
+		assertPerft(Position.STARTING_FEN, 20, 400, 8902, 197281);
+	}
+
+	@Test
+	void kiwipete() {
+		assertPerft(KIWIPETE, 48, 2039, 97862);
+	}
+
+	// En passant captures that would expose the king along a rank
+	@Test
+	void enPassantPins() {
+		assertPerft("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 14, 191, 2812, 43238);
+	}
+
+	@Test
+	void promotions() {
+		assertPerft("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 6, 264, 9467);
+		assertPerft("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 44, 1486, 62379);
+	}
+
+	@Test
+	void fenRoundTrip() {
+		assertEquals(KIWIPETE, Position.fromFen(KIWIPETE).toFen());
+		assertEquals(Position.STARTING_FEN, Position.startingPosition().toFen());
+	}
+}
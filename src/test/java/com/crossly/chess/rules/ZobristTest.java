@@ -0,0 +1,124 @@
+package com.crossly.chess.rules;
+
+import com.crossly.chess.notation.MoveNotation;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The test sequence from the Polyglot book format description. Keys are checked against an
+// independent implementation of the Polyglot formula over the FEN, and against the published
+// keys under the bundled Random64 table.
+class ZobristTest {
+
+	private record Line(String moves, String fen, long key) {}
+
+	private static final Line[] LINES = {
+			new Line("", "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", 0x463B96181691FC9CL),
+			new Line("e4", "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", 0x823C9B50FD114196L),
+			new Line("e4 d5", "rnbqkbnr/ppp1pppp/8/3p4/4P3/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 2", 0x0756B94461C50FB0L),
+			new Line("e4 d5 e5", "rnbqkbnr/ppp1pppp/8/3pP3/8/8/PPPP1PPP/RNBQKBNR b KQkq - 0 2", 0x662FAFB965DB29D4L),
+			new Line("e4 d5 e5 f5", "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3", 0x22A48B5A8E47FF78L),
+			new Line("e4 d5 e5 f5 Ke2", "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR b kq - 1 3", 0x652A607CA3F242C1L),
+			new Line("e4 d5 e5 f5 Ke2 Kf7", "rnbq1bnr/ppp1pkpp/8/3pPp2/8/8/PPPPKPPP/RNBQ1BNR w - - 2 4", 0x00FDD303C946BDD9L),
+			new Line("a4 b5 h4 b4 c4", "rnbqkbnr/p1pppppp/8/8/PpP4P/8/1P1PPPP1/RNBQKBNR b KQkq c3 0 3", 0x3C8123EA7B067637L),
+			new Line("a4 b5 h4 b4 c4 bxc3 Ra3", "rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 1 4", 0x5C3F9B829B279560L),
+	};
+
+	private static Position play(String moves) {
+		Position position = Position.startingPosition();
+		MoveNotation notation = new MoveNotation();
+		for (String san : moves.split(" ")) {
+			if (san.isEmpty())
+				continue;
+			int move = notation.parseSan(position, san);
+			assertNotEquals(Move.NONE, move, san);
+			position.play(move);
+		}
+		return position;
+	}
+
+	// Straight from the format description: piece kinds ordered black pawn, white pawn ... white
+	// king, offset 64 * kind + 8 * row + file, then castling, the en passant file only when a pawn
+	// of the side to move stands next to the double pushed pawn, and white to move.
+	private static long polyglotKey(long[] table, String fen) {
+		String[] fields = fen.split(" ");
+		long key = 0;
+		int row = 7, file = 0;
+		for (char ch : fields[0].toCharArray()) {
+			if (ch == '/') {
+				row--;
+				file = 0;
+			} else if (Character.isDigit(ch)) {
+				file += ch - '0';
+			} else {
+				int kind = 2 * "pnbrqk".indexOf(Character.toLowerCase(ch)) + (Character.isUpperCase(ch) ? 1 : 0);
+				key ^= table[64 * kind + 8 * row + file++];
+			}
+		}
+		for (char ch : fields[2].toCharArray()) {
+			int index = "KQkq".indexOf(ch);
+			if (index >= 0)
+				key ^= table[768 + index];
+		}
+		boolean white = fields[1].equals("w");
+		if (!fields[3].equals("-")) {
+			int epFile = fields[3].charAt(0) - 'a';
+			String[] rows = fields[0].split("/");
+			String pawnRow = expand(rows[white ? 3 : 4]);
+			char pawn = white ? 'P' : 'p';
+			if ((epFile > 0 && pawnRow.charAt(epFile - 1) == pawn) || (epFile < 7 && pawnRow.charAt(epFile + 1) == pawn))
+				key ^= table[772 + epFile];
+		}
+		if (white)
+			key ^= table[780];
+		return key;
+	}
+
+	private static String expand(String row) {
+		StringBuilder out = new StringBuilder(8);
+		for (char ch : row.toCharArray()) {
+			if (Character.isDigit(ch))
+				out.append(".".repeat(ch - '0'));
+			else
+				out.append(ch);
+		}
+		return out.toString();
+	}
+
+	@Test
+	void matchesPolyglotLayout() {
+		long[] table = new long[Zobrist.TABLE_SIZE];
+		Random random = new Random(781);
+		for (int i = 0; i < table.length; i++)
+			table[i] = random.nextLong();
+		Zobrist zobrist = new Zobrist(table);
+		for (var line : LINES) {
+			Position position = play(line.moves());
+			assertEquals(line.fen(), position.toFen(), line.moves());
+			assertEquals(polyglotKey(table, line.fen()), zobrist.hash(position), line.moves());
+			assertEquals(zobrist.hash(Position.fromFen(line.fen())), zobrist.hash(position), line.moves());
+		}
+	}
+
+	// An en passant square no pawn can capture on does not change the key
+	@Test
+	void ignoresUncapturableEnPassant() {
+		Zobrist zobrist = Zobrist.DEFAULT;
+		assertEquals(zobrist.hash(Position.fromFen("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1")), zobrist.hash(play("e4")));
+		assertNotEquals(zobrist.hash(Position.fromFen("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq - 0 3")),
+				zobrist.hash(play("e4 d5 e5 f5")));
+	}
+
+	@Test
+	void publishedKeys() throws IOException {
+		assumeTrue(Zobrist.class.getClassLoader().getResource(Zobrist.POLYGLOT_RESOURCE) != null,
+				Zobrist.POLYGLOT_RESOURCE + " is not bundled");
+		Zobrist zobrist = Zobrist.polyglot();
+		for (var line : LINES)
+			assertEquals(line.key(), zobrist.hash(play(line.moves())), line.moves());
+	}
+}